@@ -3,10 +3,12 @@ package com.hmdp;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
 @MapperScan("com.hmdp.mapper")
 @EnableTransactionManagement
+@EnableScheduling
 @SpringBootApplication
 public class HmDianPingApplication {
 
@@ -0,0 +1,38 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BloomFilter;
+import com.hmdp.utils.Metrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+@Configuration
+public class BloomFilterConfig {
+
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double fpp;
+
+    @Value("${hmdp.bloom.redis-mirror:false}")
+    private boolean redisMirror;
+
+    @Bean
+    public BloomFilter shopBloomFilter(@Value("${hmdp.bloom.shop-expected-insertions:1000000}") long expectedInsertions,
+                                       StringRedisTemplate stringRedisTemplate,
+                                       Metrics metrics) {
+        return create("shop", expectedInsertions, stringRedisTemplate, metrics);
+    }
+
+    @Bean
+    public BloomFilter userBloomFilter(@Value("${hmdp.bloom.user-expected-insertions:1000000}") long expectedInsertions,
+                                       StringRedisTemplate stringRedisTemplate,
+                                       Metrics metrics) {
+        return create("user", expectedInsertions, stringRedisTemplate, metrics);
+    }
+
+    private BloomFilter create(String name, long expectedInsertions, StringRedisTemplate stringRedisTemplate, Metrics metrics) {
+        BloomFilter filter = new BloomFilter(name, expectedInsertions, fpp, redisMirror ? stringRedisTemplate : null);
+        metrics.register("bloom." + name, filter::stats);
+        return filter;
+    }
+}
@@ -2,9 +2,9 @@ package com.hmdp.config;
 
 import com.hmdp.intercept.EverythingInterceptor;
 import com.hmdp.intercept.LoginInterceptor;
+import com.hmdp.utils.SessionStore;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -16,24 +16,28 @@ import javax.servlet.http.HttpServletResponse;
 public class MvcConfig implements WebMvcConfigurer {
 
     final
-    StringRedisTemplate stringRedisTemplate;
+    SessionStore sessionStore;
 
-    public MvcConfig(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public MvcConfig(SessionStore sessionStore) {
+        this.sessionStore = sessionStore;
     }
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
-        registry.addInterceptor(new EverythingInterceptor(stringRedisTemplate));
+        registry.addInterceptor(new EverythingInterceptor(sessionStore));
         registry.addInterceptor(new LoginInterceptor())
                 .excludePathPatterns(
                         "/user/code",
                         "/user/login",
                         "/blog/hot",
+                        // 博文详情公开，未登录也能查看，UV按ip记录
+                        "/blog/{id:\\d+}",
                         "/shop/**",
                         "/shop-type/**",
                         "/upload/**",
-                        "/voucher/**"
+                        "/voucher/**",
+                        "/metrics",
+                        "/metrics/ready"
                 );
     }
 }
@@ -0,0 +1,44 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.Metrics;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+
+@RestController
+@RequestMapping("/metrics")
+public class MetricsController {
+
+    @Resource
+    private Metrics metrics;
+
+    @Resource
+    private ApplicationAvailability applicationAvailability;
+
+    /**
+     * 查询所有已注册的运行指标
+     * @return 指标名 -> 统计值
+     */
+    @GetMapping
+    public Result queryMetrics() {
+        return Result.ok(metrics.snapshot());
+    }
+
+    /**
+     * 是否可以接收流量，启动时的缓存预热等完成之前返回503，供负载均衡的健康检查使用
+     */
+    @GetMapping("/ready")
+    public Result ready(HttpServletResponse response) {
+        if (applicationAvailability.getReadinessState() != ReadinessState.ACCEPTING_TRAFFIC) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return Result.fail("服务启动中");
+        }
+        return Result.ok();
+    }
+}
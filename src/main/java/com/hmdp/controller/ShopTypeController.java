@@ -4,9 +4,7 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.service.IShopTypeService;
-import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import java.util.List;
@@ -32,4 +30,14 @@ public class ShopTypeController {
 //        return Result.ok(typeList);
         return typeService.listCacheable();
     }
+
+    /**
+     * 更新店铺类型
+     * @param shopType 店铺类型数据
+     * @return 无
+     */
+    @PutMapping
+    public Result updateType(@RequestBody ShopType shopType) {
+        return typeService.updateByIdCacheable(shopType);
+    }
 }
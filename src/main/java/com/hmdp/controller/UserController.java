@@ -4,6 +4,7 @@ package com.hmdp.controller;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.UserInfo;
+import com.hmdp.service.ISignService;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.UserHolder;
@@ -32,6 +33,9 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private ISignService signService;
+
     /**
      * 发送手机验证码
      */
@@ -54,9 +58,8 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(@RequestHeader(value = "authorization", required = false) String token){
+        return userService.logout(token);
     }
 
     @GetMapping("/me")
@@ -67,7 +70,7 @@ public class UserController {
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
         // 查询详情
-        UserInfo info = userInfoService.getById(userId);
+        UserInfo info = userInfoService.queryById(userId);
         if (info == null) {
             // 没有详情，应该是第一次查看详情
             return Result.ok();
@@ -77,4 +80,28 @@ public class UserController {
         // 返回
         return Result.ok(info);
     }
+
+    /**
+     * 今天签到
+     */
+    @PostMapping("/sign")
+    public Result sign() {
+        return signService.sign();
+    }
+
+    /**
+     * 截至今天的连续签到天数
+     */
+    @GetMapping("/sign/count")
+    public Result signCount() {
+        return signService.signStreak();
+    }
+
+    /**
+     * 本月签到的天数
+     */
+    @GetMapping("/sign/month")
+    public Result signCountOfMonth() {
+        return signService.signCountOfMonth();
+    }
 }
@@ -14,17 +14,24 @@ public class Result {
     private String errorMsg;
     private Object data;
     private Long total;
+    /**
+     * 游标分页时下一页的游标，没有下一页时为null
+     */
+    private String nextCursor;
 
     public static Result ok(){
-        return new Result(true, null, null, null);
+        return new Result(true, null, null, null, null);
     }
     public static Result ok(Object data){
-        return new Result(true, null, data, null);
+        return new Result(true, null, data, null, null);
     }
     public static Result ok(List<?> data, Long total){
-        return new Result(true, null, data, total);
+        return new Result(true, null, data, total, null);
+    }
+    public static Result ok(List<?> data, String nextCursor){
+        return new Result(true, null, data, null, nextCursor);
     }
     public static Result fail(String errorMsg){
-        return new Result(false, errorMsg, null, null);
+        return new Result(false, errorMsg, null, null, null);
     }
 }
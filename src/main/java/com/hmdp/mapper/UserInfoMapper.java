@@ -2,6 +2,7 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.UserInfo;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
 
 /**
  * <p>
@@ -13,4 +14,13 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface UserInfoMapper extends BaseMapper<UserInfo> {
 
+    /**
+     * 修改关注的人的数量，用户详情不存在时新建
+     */
+    int incrFollowee(@Param("userId") Long userId, @Param("delta") int delta);
+
+    /**
+     * 修改粉丝数量，用户详情不存在时新建
+     */
+    int incrFans(@Param("userId") Long userId, @Param("delta") int delta);
 }
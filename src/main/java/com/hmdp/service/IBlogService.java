@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,28 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    Result saveBlog(Blog blog);
+
+    Result queryBlogById(Long id);
+
+    Result likeBlog(Long id);
+
+    /**
+     * @param cursor 不为null时按游标分页，忽略current
+     */
+    Result queryHotBlog(Integer current, String cursor);
+
+    /**
+     * 滚动分页查询关注的人的博文
+     *
+     * @param max    上一页最小的时间戳，第一页传当前时间
+     * @param offset 上一页中和max相同的条数，第一页传0
+     */
+    Result queryBlogOfFollow(Long max, Integer offset);
+
+    /**
+     * 热门排行不存在时，从数据库加载所有博文的分数
+     */
+    void loadHotRank();
+
 }
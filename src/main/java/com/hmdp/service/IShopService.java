@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.time.LocalDateTime;
+
 /**
  * <p>
  *  服务类
@@ -16,7 +18,39 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    Result saveShop(Shop shop);
+
     Result updateByIdCacheable(Shop shop);
 
-    public void shop2Redis(Long id, Long seconds) throws InterruptedException;
+    /**
+     * @param cursor 不为null时按游标分页，忽略current；传了坐标时不支持游标
+     */
+    Result queryShopByType(Integer typeId, Integer current, String cursor, Double x, Double y);
+
+    /**
+     * @param cursor 不为null时按游标分页，忽略current
+     */
+    Result queryShopByName(String name, Integer current, String cursor);
+
+    /**
+     * 从tb_shop全量建立店铺名称的本地搜索索引，重建时移除已经删除的店铺
+     *
+     * @return 加载到的最大更新时间，没有店铺时返回null
+     */
+    LocalDateTime loadSearchIndex();
+
+    /**
+     * 重新索引更新时间不早于since的店铺，补上其他节点的更新通知丢失的情况
+     *
+     * @param since 上次加载到的最大更新时间，为null时重新索引所有店铺
+     * @return 加载到的最大更新时间，没有更新时返回since
+     */
+    LocalDateTime refreshSearchIndex(LocalDateTime since);
+
+    /**
+     * 从tb_shop加载每个类型的店铺坐标到redis的GEO索引
+     */
+    void loadShopGeo();
+
+    public void shop2Redis(Long id, Long seconds);
 }
@@ -15,4 +15,6 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result listCacheable();
+
+    Result updateByIdCacheable(ShopType shopType);
 }
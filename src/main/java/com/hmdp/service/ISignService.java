@@ -0,0 +1,37 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Sign;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+import java.time.YearMonth;
+
+/**
+ * <p>
+ *  服务类
+ * </p>
+ *
+ * @author 虎哥
+ * @since 2021-12-22
+ */
+public interface ISignService extends IService<Sign> {
+
+    Result sign();
+
+    /**
+     * 截至今天的连续签到天数
+     */
+    Result signStreak();
+
+    /**
+     * 本月签到的天数
+     */
+    Result signCountOfMonth();
+
+    /**
+     * 把一个月的签到bitmap批量归档到数据库，并删除redis中的key
+     *
+     * @return 归档的用户数
+     */
+    long archiveMonth(YearMonth month);
+}
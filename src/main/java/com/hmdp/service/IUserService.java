@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -20,4 +23,14 @@ public interface IUserService extends IService<User> {
     Result sendCode(String phone, HttpSession session);
 
     Result login(LoginFormDTO loginForm, HttpSession session);
+
+    Result logout(String token);
+
+    /**
+     * 批量查询用户的昵称和头像，先查redis，未命中的用一条IN查询补上
+     *
+     * @param userIds 用户id，可以重复
+     * @return 用户id -> 用户，不存在的用户不在结果中
+     */
+    Map<Long, UserDTO> queryUserProfiles(Collection<Long> userIds);
 }
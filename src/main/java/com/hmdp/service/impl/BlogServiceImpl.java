@@ -1,20 +1,570 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.collection.CollUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IFollowService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.FeedFanoutWorker;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.LatencyRecorder;
+import com.hmdp.utils.Metrics;
+import com.hmdp.utils.PageCursor;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisLockFactory;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 热门博文的排行榜放在redis的zset中，分数是点赞数，点赞时同步加减1，
+ * 分页直接按排名取id，再批量查博文，翻到第几页都是一样的开销。
+ * 排行先完整加载到临时key再改名，并带一个分数最低的标记成员；key被淘汰后点赞、发博文会重新创建出只有几篇博文的zset，
+ * 没有标记成员就说明不完整，回退到数据库并在后台重新加载。
+ * 点赞记录在redis的集合中，点赞数的变化先累加在增量hash里，定时批量写回数据库，
+ * 不再每次点赞都update同一行。每批写库成功后立即从待写回的hash中删掉这一批，失败时下次只写回剩下的批次；
+ * 写回是至少一次的：写库成功但删除这一批之前宕机，会重复写回这一批。
+ * 关注流是推拉结合的：新博文由后台线程异步推送到粉丝的收件箱 feed:{userId}，粉丝数超过阈值的大V只写自己的发件箱，
+ * 粉丝读取时再合并关注的大V的发件箱。读取只按分数取一页，和关注的人数、博文总数无关。
+ * 配置了 hmdp.blog.hot-decay-hours 时，分数再加上发布时间折算的分值，
+ * 发布时间每晚这么多小时相当于少一个赞，新博文更容易排在前面。
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    /**
+     * 计算时间分值的起点，2022-01-01 00:00:00 UTC
+     */
+    private static final long HOT_EPOCH_SECONDS = 1640995200L;
+    private static final int SEED_BATCH_SIZE = 1000;
+    /**
+     * 热门排行完整加载过的标记成员，分数低于所有博文，只会出现在最后一页
+     */
+    private static final String HOT_SEEDED_MEMBER = "seeded";
+    private static final double HOT_SEEDED_SCORE = -1e18;
+
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    private static final DefaultRedisScript<Long> LIKE_FLUSH_SCRIPT;
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+        LIKE_FLUSH_SCRIPT = new DefaultRedisScript<>();
+        LIKE_FLUSH_SCRIPT.setLocation(new ClassPathResource("like_flush.lua"));
+        LIKE_FLUSH_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisLockFactory lockFactory;
+
+    @Resource
+    private IFollowService followService;
+
+    @Resource
+    private FeedFanoutWorker feedFanoutWorker;
+
+    @Resource
+    private Metrics metrics;
+
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    private final LongAdder likeCount = new LongAdder();
+    private final LongAdder unlikeCount = new LongAdder();
+    private final LongAdder flushedBlogCount = new LongAdder();
+    private final LongAdder flushFailedCount = new LongAdder();
+    private final LatencyRecorder flushLatency = new LatencyRecorder();
+    private volatile long lastFlushTime;
+    /**
+     * 上次写回时，最早的一次点赞已经等待了多久
+     */
+    private volatile long lastFlushLagMillis;
+
+    /**
+     * 每隔多少小时相当于一个赞，0表示不按时间衰减
+     */
+    @Value("${hmdp.blog.hot-decay-hours:0}")
+    private double hotDecayHours;
+
+    @Override
+    @Transactional
+    public Result saveBlog(Blog blog) {
+        // 1. 保存探店博文
+        save(blog);
+        // 2. 加入热门排行
+        stringRedisTemplate.opsForZSet().add(RedisConstants.BLOG_HOT_KEY, blog.getId().toString(), hotScore(blog));
+        // 3. 提交推送任务，事务提交后由后台线程推送给粉丝
+        feedFanoutWorker.submit(blog.getUserId(), blog.getId(), System.currentTimeMillis());
+        return Result.ok(blog.getId());
+    }
+
+    @PostConstruct
+    public void init() {
+        metrics.register("blog.like", this::likeStats);
+    }
+
+    @Override
+    public Result queryBlogById(Long id) {
+        // 1. 查询博文
+        Blog blog = getById(id);
+        if (blog == null) {
+            return Result.fail("博文不存在！");
+        }
+        // 2. 加上还没写回数据库的点赞数，填充博主信息
+        List<Blog> blogs = Collections.singletonList(blog);
+        addPendingLikes(blogs);
+        fillBlogUsers(blogs);
+        // 3. 当前用户是否点过赞
+        UserDTO user = UserHolder.getUser();
+        if (user != null) {
+            blog.setIsLike(Boolean.TRUE.equals(stringRedisTemplate.opsForSet()
+                    .isMember(RedisConstants.BLOG_LIKED_KEY + id, user.getId().toString())));
+        }
+        return Result.ok(blog);
+    }
+
+    @Override
+    public Result likeBlog(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        // 点赞或取消点赞，同时累加点赞数的增量、更新热门排行，不访问数据库
+        Long delta = stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(
+                        RedisConstants.BLOG_LIKED_KEY + id,
+                        RedisConstants.BLOG_LIKE_DELTA_KEY,
+                        RedisConstants.BLOG_HOT_KEY,
+                        RedisConstants.BLOG_LIKE_SINCE_KEY
+                ),
+                userId.toString(), id.toString(), String.valueOf(System.currentTimeMillis())
+        );
+        if (delta != null && delta > 0) {
+            likeCount.increment();
+        } else {
+            unlikeCount.increment();
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 定时把累加的点赞数增量批量写回数据库
+     */
+    @Scheduled(fixedDelay = SystemConstants.BLOG_LIKE_FLUSH_INTERVAL)
+    public void flushLikes() {
+        // 多个节点只需要一个写回
+        ILock lock = lockFactory.getLock(RedisConstants.BLOG_LIKE_FLUSHING_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        long begin = System.nanoTime();
+        try {
+            // 1. 增量hash改名为待写回的hash
+            Long since = stringRedisTemplate.execute(
+                    LIKE_FLUSH_SCRIPT,
+                    Arrays.asList(
+                            RedisConstants.BLOG_LIKE_DELTA_KEY,
+                            RedisConstants.BLOG_LIKE_FLUSHING_KEY,
+                            RedisConstants.BLOG_LIKE_SINCE_KEY
+                    )
+            );
+            if (since == null || since < 0) {
+                return;
+            }
+            // 2. 读出所有增量，抵消为0的跳过
+            Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(RedisConstants.BLOG_LIKE_FLUSHING_KEY);
+            Map<Long, Long> deltas = new HashMap<>();
+            entries.forEach((blogId, delta) -> {
+                long d = Long.parseLong(delta.toString());
+                if (d != 0) {
+                    deltas.put(Long.valueOf(blogId.toString()), d);
+                }
+            });
+            // 3. 分批写回，每批一条update语句，写库成功后立即删掉这一批，失败重试时不会重复写回前面的批次
+            for (List<Long> ids : CollUtil.split(deltas.keySet(), SystemConstants.BLOG_LIKE_FLUSH_BATCH_SIZE)) {
+                Map<Long, Long> batch = new LinkedHashMap<>();
+                ids.forEach(blogId -> batch.put(blogId, deltas.get(blogId)));
+                getBaseMapper().incrLikedBatch(batch);
+                stringRedisTemplate.opsForHash().delete(RedisConstants.BLOG_LIKE_FLUSHING_KEY,
+                        ids.stream().map(String::valueOf).toArray());
+            }
+            // 4. 全部写回，删除待写回的hash，剩下的只有抵消为0的增量
+            stringRedisTemplate.delete(RedisConstants.BLOG_LIKE_FLUSHING_KEY);
+            flushedBlogCount.add(deltas.size());
+            lastFlushTime = System.currentTimeMillis();
+            lastFlushLagMillis = since > 0 ? lastFlushTime - since : 0;
+        } catch (Exception e) {
+            // 待写回的hash还在，下次继续
+            flushFailedCount.increment();
+            log.error("点赞数写回数据库失败", e);
+        } finally {
+            flushLatency.recordSince(begin);
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Result queryHotBlog(Integer current, String cursor) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        // 1. 游标分页时游标中是已经返回的条数，zset按排名取一页本身就是 O(log N + size)，不需要按分数定位
+        long start;
+        if (cursor != null) {
+            PageCursor c = PageCursor.decode(cursor);
+            if (c == null) {
+                return Result.fail("分页游标错误！");
+            }
+            start = c.isFirst() ? 0 : c.getKey();
+            if (start > SystemConstants.MAX_PAGE_OFFSET) {
+                return Result.fail("分页游标错误！");
+            }
+        } else {
+            start = (long) (Math.max(current, 1) - 1) * size;
+            if (start > SystemConstants.MAX_PAGE_OFFSET) {
+                return Result.ok(Collections.emptyList());
+            }
+        }
+        // 2. 按排名取当前页的博文id，多取一条判断是否还有下一页，同时确认排行是完整加载过的
+        // ZREVRANGE blog:hot start end; ZSCORE blog:hot seeded
+        byte[] key = RedisConstants.BLOG_HOT_KEY.getBytes(StandardCharsets.UTF_8);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.zRevRange(key, start, start + size);
+            connection.zScore(key, HOT_SEEDED_MEMBER.getBytes(StandardCharsets.UTF_8));
+            return null;
+        });
+        @SuppressWarnings("unchecked")
+        Set<String> idSet = (Set<String>) results.get(0);
+        List<Blog> records;
+        boolean hasMore;
+        if (idSet == null || results.get(1) == null) {
+            // 3. 排行榜没有加载过，或者被淘汰后只剩几篇博文，回退到数据库排序，不查总数，并在后台重新加载
+            cacheRebuildExecutor.submit(RedisConstants.BLOG_HOT_KEY, this::loadHotRank);
+            records = query()
+                    .orderByDesc("liked")
+                    .orderByDesc("id")
+                    .last("LIMIT " + start + ", " + (size + 1))
+                    .list();
+            hasMore = records.size() > size;
+            if (hasMore) {
+                records = new ArrayList<>(records.subList(0, size));
+            }
+        } else {
+            // 4. 批量查博文，按排名的顺序返回，已经删除的博文从排行中移除
+            idSet.remove(HOT_SEEDED_MEMBER);
+            List<Long> ids = idSet.stream().map(Long::valueOf).collect(Collectors.toList());
+            hasMore = ids.size() > size;
+            if (hasMore) {
+                ids = ids.subList(0, size);
+            }
+            records = listByIdsInOrder(ids);
+            if (records.size() < ids.size()) {
+                Set<Long> found = records.stream().map(Blog::getId).collect(Collectors.toSet());
+                Object[] removed = ids.stream().filter(id -> !found.contains(id)).map(String::valueOf).toArray();
+                stringRedisTemplate.opsForZSet().remove(RedisConstants.BLOG_HOT_KEY, removed);
+            }
+        }
+        // 5. 加上还没写回数据库的点赞数
+        addPendingLikes(records);
+        // 6. 批量查询博主信息
+        fillBlogUsers(records);
+        if (cursor == null) {
+            return Result.ok(records);
+        }
+        return Result.ok(records, hasMore ? PageCursor.encode(start + size, 0) : null);
+    }
+
+    @Override
+    public Result queryBlogOfFollow(Long max, Integer offset) {
+        Long userId = UserHolder.getUser().getId();
+        int count = offset + SystemConstants.MAX_PAGE_SIZE;
+        // 1. 查收件箱和关注的大V的发件箱，每个最多取 offset + 一页 条 ZREVRANGEBYSCORE key max 0 WITHSCORES LIMIT 0 count
+        List<String> keys = new ArrayList<>();
+        keys.add(RedisConstants.FEED_KEY + userId);
+        for (Long celebrity : followService.queryFolloweesIn(userId, RedisConstants.FEED_CELEBRITY_KEY)) {
+            keys.add(RedisConstants.FEED_OUTBOX_KEY + celebrity);
+        }
+        List<FeedItem> items = new ArrayList<>();
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                ZSetOperations<String, String> ops = (ZSetOperations<String, String>) operations.opsForZSet();
+                for (String key : keys) {
+                    ops.reverseRangeByScoreWithScores(key, 0, max, 0, count);
+                }
+                return null;
+            }
+        });
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            Set<ZSetOperations.TypedTuple<String>> tuples = (Set<ZSetOperations.TypedTuple<String>>) result;
+            if (tuples == null) {
+                continue;
+            }
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                if (tuple.getValue() != null && tuple.getScore() != null) {
+                    items.add(new FeedItem(Long.valueOf(tuple.getValue()), tuple.getScore().longValue()));
+                }
+            }
+        }
+        // 2. 合并：按时间倒序，时间相同的按博文id倒序，保证每次翻页的顺序一致；同一篇博文只保留一次
+        List<FeedItem> merged = items.stream()
+                .distinct()
+                .sorted(Comparator.comparingLong((FeedItem i) -> i.time).reversed()
+                        .thenComparing(Comparator.comparingLong((FeedItem i) -> i.blogId).reversed()))
+                .collect(Collectors.toList());
+        // 3. 跳过上一页已经返回的、时间等于max的offset条，取一页
+        int skip = 0;
+        List<FeedItem> page = new ArrayList<>(SystemConstants.MAX_PAGE_SIZE);
+        for (FeedItem item : merged) {
+            if (item.time == max && skip < offset) {
+                skip++;
+                continue;
+            }
+            page.add(item);
+            if (page.size() == SystemConstants.MAX_PAGE_SIZE) {
+                break;
+            }
+        }
+        ScrollResult r = new ScrollResult();
+        if (page.isEmpty()) {
+            r.setList(Collections.emptyList());
+            r.setMinTime(max);
+            r.setOffset(offset);
+            return Result.ok(r);
+        }
+        // 4. 下一页的max是本页最小的时间，offset是本页中等于这个时间的条数
+        long minTime = page.get(page.size() - 1).time;
+        int nextOffset = 0;
+        for (FeedItem item : page) {
+            if (item.time == minTime) {
+                nextOffset++;
+            }
+        }
+        if (minTime == max) {
+            // 整页都和max相同，还要加上之前跳过的
+            nextOffset += offset;
+        }
+        // 5. 批量查博文
+        List<Blog> blogs = listByIdsInOrder(page.stream().map(i -> i.blogId).collect(Collectors.toList()));
+        addPendingLikes(blogs);
+        fillBlogUsers(blogs);
+        r.setList(blogs);
+        r.setMinTime(minTime);
+        r.setOffset(nextOffset);
+        return Result.ok(r);
+    }
+
+    @Override
+    public void loadHotRank() {
+        // 多个节点同时启动时只需要一个加载
+        ILock lock = lockFactory.getLock(RedisConstants.BLOG_HOT_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            if (hotRankExists()) {
+                return;
+            }
+            long begin = System.currentTimeMillis();
+            long lastId = 0;
+            long total = 0;
+            // 1. 先写入临时key，加载完成前不影响正在使用的排行
+            stringRedisTemplate.delete(RedisConstants.BLOG_HOT_SEEDING_KEY);
+            byte[] key = RedisConstants.BLOG_HOT_SEEDING_KEY.getBytes(StandardCharsets.UTF_8);
+            while (true) {
+                // 2. 按主键分批查询，加上还没写回的点赞数，每批一次pipeline写入
+                List<Blog> blogs = query()
+                        .select("id", "liked", "create_time")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + SEED_BATCH_SIZE)
+                        .list();
+                addPendingLikes(blogs);
+                if (!blogs.isEmpty()) {
+                    stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                        for (Blog blog : blogs) {
+                            connection.zAdd(key, hotScore(blog), blog.getId().toString().getBytes(StandardCharsets.UTF_8));
+                        }
+                        return null;
+                    });
+                }
+                total += blogs.size();
+                if (blogs.size() < SEED_BATCH_SIZE) {
+                    break;
+                }
+                lastId = blogs.get(blogs.size() - 1).getId();
+            }
+            // 3. 加上标记成员，改名替换掉可能不完整的排行
+            stringRedisTemplate.opsForZSet().add(RedisConstants.BLOG_HOT_SEEDING_KEY, HOT_SEEDED_MEMBER, HOT_SEEDED_SCORE);
+            stringRedisTemplate.rename(RedisConstants.BLOG_HOT_SEEDING_KEY, RedisConstants.BLOG_HOT_KEY);
+            log.info("热门博文排行加载完成，共{}篇，耗时{}ms", total, System.currentTimeMillis() - begin);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按给定id的顺序批量查询博文，已经删除的博文跳过
+     */
+    private List<Blog> listByIdsInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<Long, Blog> blogs = listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, Function.identity()));
+        List<Blog> records = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Blog blog = blogs.get(id);
+            if (blog != null) {
+                records.add(blog);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * 数据库中的点赞数最多落后一个写回周期，加上还没写回的增量
+     */
+    @SuppressWarnings("unchecked")
+    private void addPendingLikes(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        List<Object> fields = blogs.stream().map(b -> (Object) b.getId().toString()).collect(Collectors.toList());
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                HashOperations<String, Object, Object> ops = (HashOperations<String, Object, Object>) operations.opsForHash();
+                ops.multiGet(RedisConstants.BLOG_LIKE_DELTA_KEY, fields);
+                ops.multiGet(RedisConstants.BLOG_LIKE_FLUSHING_KEY, fields);
+                return null;
+            }
+        });
+        for (Object result : results) {
+            List<Object> deltas = (List<Object>) result;
+            for (int i = 0; i < blogs.size(); i++) {
+                Object delta = deltas.get(i);
+                if (delta != null) {
+                    Blog blog = blogs.get(i);
+                    int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+                    blog.setLiked(Math.max(0, liked + Integer.parseInt(delta.toString())));
+                }
+            }
+        }
+    }
+
+    private Map<String, Object> likeStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("likes", likeCount.sum());
+        stats.put("unlikes", unlikeCount.sum());
+        stats.put("pendingBlogs", stringRedisTemplate.opsForHash().size(RedisConstants.BLOG_LIKE_DELTA_KEY));
+        stats.put("flushedBlogs", flushedBlogCount.sum());
+        stats.put("flushFailed", flushFailedCount.sum());
+        stats.put("lastFlushTime", lastFlushTime);
+        stats.put("lastFlushLagMillis", lastFlushLagMillis);
+        stats.put("flush", flushLatency.snapshot());
+        return stats;
+    }
+
+    /**
+     * 排行是否完整加载过：只看标记成员，点赞、发博文重新创建出来的key没有标记
+     */
+    private boolean hotRankExists() {
+        return stringRedisTemplate.opsForZSet().score(RedisConstants.BLOG_HOT_KEY, HOT_SEEDED_MEMBER) != null;
+    }
+
+    private double hotScore(Blog blog) {
+        double score = blog.getLiked() == null ? 0 : blog.getLiked();
+        if (hotDecayHours > 0) {
+            LocalDateTime createTime = blog.getCreateTime() == null ? LocalDateTime.now() : blog.getCreateTime();
+            long seconds = createTime.atZone(ZoneId.systemDefault()).toEpochSecond() - HOT_EPOCH_SECONDS;
+            score += seconds / (hotDecayHours * 3600);
+        }
+        return score;
+    }
+
+    /**
+     * 一次批量查询填充博主的昵称和头像，不再每篇博文查一次用户
+     */
+    private void fillBlogUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Map<Long, UserDTO> users = userService.queryUserProfiles(
+                blogs.stream().map(Blog::getUserId).collect(Collectors.toList()));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
+
+    private static class FeedItem {
+        final long blogId;
+        final long time;
+
+        FeedItem(long blogId, long time) {
+            this.blogId = blogId;
+            this.time = time;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FeedItem && ((FeedItem) o).blogId == blogId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(blogId);
+        }
+    }
 }
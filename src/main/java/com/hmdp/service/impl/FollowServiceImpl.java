@@ -1,20 +1,242 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.IdUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
+import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 每个用户关注的人在redis中保存一个集合 follows:{userId}，共同关注直接用SINTER求交集。
+ * 集合按需从数据库加载，加载完成后放入一个占位成员，用来区分"没有加载"和"没有关注任何人"。
+ * 关注数和粉丝数在关注、取关时增量修改，不重新统计。
+ * redis中的集合和用户详情缓存都在事务提交后再修改，回滚时不会和数据库不一致。
+ * 每次修改集合时把版本号加1，加载时先写临时key，版本号没变才RENAME成正式的集合，
+ * 并发的取关不会被加载前读到的旧数据覆盖；集合有ttl，修改redis失败造成的不一致在下次加载时恢复。
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
 
+    /**
+     * 表示集合已经从数据库加载过的占位成员，用户id不会是0
+     */
+    private static final String LOADED_MARKER = "0";
+
+    private static final DefaultRedisScript<Long> FOLLOW_CHANGE_SCRIPT;
+    private static final DefaultRedisScript<Long> FOLLOW_LOAD_SCRIPT;
+
+    static {
+        FOLLOW_CHANGE_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_CHANGE_SCRIPT.setLocation(new ClassPathResource("follow_change.lua"));
+        FOLLOW_CHANGE_SCRIPT.setResultType(Long.class);
+        FOLLOW_LOAD_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_LOAD_SCRIPT.setLocation(new ClassPathResource("follow_load.lua"));
+        FOLLOW_LOAD_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private UserInfoMapper userInfoMapper;
+
+    @Resource
+    private IUserService userService;
+
+    @Override
+    @Transactional
+    public Result follow(Long followUserId, Boolean isFollow) {
+        // 1. 获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        if (Objects.equals(userId, followUserId)) {
+            return Result.fail("不能关注自己！");
+        }
+        if (Boolean.TRUE.equals(isFollow)) {
+            // 2. 关注，新增数据，唯一索引保证不会重复关注
+            Follow follow = new Follow();
+            follow.setUserId(userId);
+            follow.setFollowUserId(followUserId);
+            try {
+                save(follow);
+            } catch (DuplicateKeyException e) {
+                return Result.ok();
+            }
+            // 2.1 关注数和粉丝数各加1
+            changeCounts(userId, followUserId, 1);
+            // 2.2 事务提交后放入redis的集合
+            afterCommit(() -> changeFollows(userId, followUserId, true));
+        } else {
+            // 3. 取关，删除数据
+            boolean removed = remove(new QueryWrapper<Follow>()
+                    .eq("user_id", userId).eq("follow_user_id", followUserId));
+            if (!removed) {
+                return Result.ok();
+            }
+            // 3.1 关注数和粉丝数各减1
+            changeCounts(userId, followUserId, -1);
+            // 3.2 事务提交后从redis的集合中移除
+            afterCommit(() -> changeFollows(userId, followUserId, false));
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        String key = ensureFollowsLoaded(userId);
+        Boolean isMember = stringRedisTemplate.opsForSet().isMember(key, followUserId.toString());
+        return Result.ok(Boolean.TRUE.equals(isMember));
+    }
+
+    @Override
+    public Result followCommons(Long id) {
+        Long userId = UserHolder.getUser().getId();
+        // 1. 求两个人关注的人的交集
+        String key1 = ensureFollowsLoaded(userId);
+        String key2 = ensureFollowsLoaded(id);
+        List<Long> ids = intersect(key1, key2);
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 2. 批量查询用户
+        Map<Long, UserDTO> users = userService.queryUserProfiles(ids);
+        List<UserDTO> result = new ArrayList<>(users.values());
+        return Result.ok(result);
+    }
+
+    @Override
+    public List<Long> queryFolloweesIn(Long userId, String setKey) {
+        return intersect(ensureFollowsLoaded(userId), setKey);
+    }
+
+    private List<Long> intersect(String key1, String key2) {
+        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key1, key2);
+        if (intersect == null) {
+            return new ArrayList<>();
+        }
+        return intersect.stream()
+                .filter(s -> !LOADED_MARKER.equals(s))
+                .map(Long::valueOf)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 用户的关注集合没有加载过时，从数据库加载
+     *
+     * @return 集合的key
+     */
+    private String ensureFollowsLoaded(Long userId) {
+        String key = RedisConstants.FOLLOWS_KEY + userId;
+        Boolean loaded = stringRedisTemplate.opsForSet().isMember(key, LOADED_MARKER);
+        if (Boolean.TRUE.equals(loaded)) {
+            return key;
+        }
+        String versionKey = RedisConstants.FOLLOWS_VERSION_KEY + userId;
+        String ttl = String.valueOf(TimeUnit.MINUTES.toSeconds(RedisConstants.FOLLOWS_TTL));
+        for (int attempt = 1; ; attempt++) {
+            // 1. 先读版本号，再查数据库
+            String version = stringRedisTemplate.opsForValue().get(versionKey);
+            List<String> members = listObjs(
+                    new QueryWrapper<Follow>().select("follow_user_id").eq("user_id", userId),
+                    Object::toString
+            );
+            members.add(LOADED_MARKER);
+            // 2. 写入临时key，加载的节点宕机时临时key也会过期
+            String loadingKey = RedisConstants.FOLLOWS_LOADING_KEY + userId + ":" + IdUtil.fastSimpleUUID();
+            stringRedisTemplate.opsForSet().add(loadingKey, members.toArray(new String[0]));
+            stringRedisTemplate.expire(loadingKey, RedisConstants.FOLLOWS_TTL, TimeUnit.MINUTES);
+            // 3. 版本号没变才替换正式的集合；一直有并发修改时最后一次不再检查，由ttl兜底
+            boolean force = attempt >= SystemConstants.FOLLOWS_LOAD_ATTEMPTS;
+            Long replaced = stringRedisTemplate.execute(
+                    FOLLOW_LOAD_SCRIPT,
+                    Arrays.asList(loadingKey, key, versionKey),
+                    version == null ? "" : version, ttl, force ? "1" : "0"
+            );
+            if (Long.valueOf(1).equals(replaced)) {
+                return key;
+            }
+        }
+    }
+
+    /**
+     * 事务提交后修改redis中的关注集合，失败时删掉集合，下次读取时从数据库重新加载
+     */
+    private void changeFollows(Long userId, Long followUserId, boolean follow) {
+        String key = RedisConstants.FOLLOWS_KEY + userId;
+        try {
+            stringRedisTemplate.execute(
+                    FOLLOW_CHANGE_SCRIPT,
+                    Arrays.asList(key, RedisConstants.FOLLOWS_VERSION_KEY + userId),
+                    follow ? "1" : "0", followUserId.toString(),
+                    String.valueOf(TimeUnit.MINUTES.toSeconds(RedisConstants.FOLLOWS_TTL))
+            );
+        } catch (Exception e) {
+            log.error("修改关注集合失败，userId: {}, followUserId: {}", userId, followUserId, e);
+            try {
+                stringRedisTemplate.delete(key);
+            } catch (Exception ignored) {
+                // redis不可用时删除也会失败，由集合的ttl兜底
+            }
+        }
+    }
+
+    private void changeCounts(Long userId, Long followUserId, int delta) {
+        userInfoMapper.incrFollowee(userId, delta);
+        userInfoMapper.incrFans(followUserId, delta);
+        // 用户详情缓存中有关注数和粉丝数，提交后再删，提交前删的话并发的查询可能又把旧的计数读进缓存
+        afterCommit(() -> stringRedisTemplate.delete(Arrays.asList(
+                RedisConstants.CACHE_USER_INFO_KEY + userId,
+                RedisConstants.CACHE_USER_INFO_KEY + followUserId)));
+    }
+
+    /**
+     * 在事务中调用时等事务提交后再执行，回滚时不执行
+     */
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
 }
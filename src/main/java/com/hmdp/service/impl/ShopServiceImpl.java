@@ -1,222 +1,507 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.dto.RedisData;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BatchRebuilder;
+import com.hmdp.utils.BloomFilter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.Metrics;
+import com.hmdp.utils.PageCursor;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisLockFactory;
+import com.hmdp.utils.ShopSearchIndex;
+import com.hmdp.utils.SystemConstants;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * <p>
  * 服务实现类
  * </p>
+ * 按类型查询附近的店铺时，用redis的GEO索引 shop:geo:{typeId} 按距离排序取一页，
+ * 再批量查询店铺，不再把整页店铺查出来在客户端按距离排序。
+ * 按名称搜索店铺用本地的倒排索引按相关度排序，不再用 LIKE '%name%' 扫描全表。
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
-    static final ExecutorService QUERY_SHOP_EXECUTORS = Executors.newFixedThreadPool(4);
     final
     StringRedisTemplate stringRedisTemplate;
 
-    public ShopServiceImpl(StringRedisTemplate stringRedisTemplate) {
+    /**
+     * 店铺的本地缓存（L1），命中时不用访问redis，也不用反序列化
+     */
+    final
+    LocalCache<Long, Shop> shopLocalCache;
+
+    final
+    CacheInvalidator cacheInvalidator;
+
+    final
+    CacheClient cacheClient;
+
+    /**
+     * 店铺缓存逻辑过期后，同一窗口内过期的店铺合并成一批重建
+     */
+    final
+    BatchRebuilder<Long, Shop> shopRebuilder;
+
+    /**
+     * 所有店铺id的布隆过滤器，拦截不存在的id
+     */
+    final
+    BloomFilter shopBloomFilter;
+
+    final
+    RedisLockFactory lockFactory;
+
+    /**
+     * 店铺名称的本地倒排索引
+     */
+    final
+    ShopSearchIndex shopSearchIndex;
+
+    final
+    CacheRebuildExecutor cacheRebuildExecutor;
+
+    public ShopServiceImpl(StringRedisTemplate stringRedisTemplate,
+                           CacheInvalidator cacheInvalidator,
+                           CacheClient cacheClient,
+                           @Qualifier("shopBloomFilter") BloomFilter shopBloomFilter,
+                           RedisLockFactory lockFactory,
+                           ShopSearchIndex shopSearchIndex,
+                           CacheRebuildExecutor cacheRebuildExecutor,
+                           Metrics metrics) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.lockFactory = lockFactory;
+        this.shopSearchIndex = shopSearchIndex;
+        this.cacheRebuildExecutor = cacheRebuildExecutor;
+        this.cacheInvalidator = cacheInvalidator;
+        this.cacheClient = cacheClient;
+        this.shopRebuilder = cacheClient.batchRebuilder(
+                RedisConstants.CACHE_SHOP_KEY, this::mapByIds, RedisConstants.CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS);
+        this.shopBloomFilter = shopBloomFilter;
+        this.shopLocalCache = new LocalCache<>(
+                SystemConstants.LOCAL_SHOP_MAX_SIZE,
+                SystemConstants.LOCAL_SHOP_MAX_WEIGHT,
+                SystemConstants.LOCAL_SHOP_TTL,
+                TimeUnit.SECONDS,
+                ShopServiceImpl::weigh
+        );
+        metrics.register("cache.shop.local", shopLocalCache::stats);
+        // 其他节点新增、更新店铺时，清除本节点的本地缓存；新增的id加入布隆过滤器
+        cacheInvalidator.subscribe(RedisConstants.CACHE_SHOP_KEY, id -> {
+            shopLocalCache.invalidate(Long.valueOf(id));
+            shopBloomFilter.put(Long.parseLong(id));
+        });
+        // 任意节点新增、更新店铺并提交事务后，所有节点从数据库重新读取店铺，更新搜索索引
+        cacheInvalidator.subscribe(RedisConstants.SHOP_SEARCH_KEY, id -> cacheRebuildExecutor.submit(
+                RedisConstants.SHOP_SEARCH_KEY + id, () -> reindex(Long.valueOf(id))));
     }
 
     @Override
     public Result queryById(Long id) {
-//        Shop shop = queryByIdBreakDown(id);
-//        Shop shop = queryByIdPassThrough(id);
-        Shop shop = queryByIdLogicalExpire(id);
+        // 0. 布隆过滤器判定不存在，一定不存在，不用查redis和数据库
+        if (!shopBloomFilter.mightContain(id)) {
+            return Result.ok(null);
+        }
+        // 1. 先查本地缓存
+        Shop shop = shopLocalCache.get(id);
+        if (shop != null) {
+            return Result.ok(shop);
+        }
+        // 2. 本地缓存未命中，查redis
+        long stamp = cacheInvalidator.stamp();
+        // 缓存穿透
+//        shop = cacheClient.queryWithPassThrough(
+//                RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        // 互斥锁解决缓存击穿
+//        shop = cacheClient.queryWithMutex(
+//                RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        // 逻辑过期解决缓存击穿，过期的店铺批量重建；新增、更新后删除的缓存在这里加锁重新加载
+        shop = cacheClient.queryWithLogicalExpire(id, Shop.class, shopRebuilder);
+        // 3. 存入本地缓存，查询期间被更新过的不存，以免存入旧数据
+        if (!cacheInvalidator.isInvalidatedSince(RedisConstants.CACHE_SHOP_KEY + id, stamp)) {
+            shopLocalCache.put(id, shop);
+        }
         return Result.ok(shop);
     }
 
+    /**
+     * 估算一个shop对象占用的字节数，作为本地缓存的权重
+     */
+    private static int weigh(Shop shop) {
+        // 对象头、数值字段等固定开销，字符串按每个字符2字节计算
+        int weight = 128;
+        weight += 2 * StrUtil.length(shop.getName());
+        weight += 2 * StrUtil.length(shop.getImages());
+        weight += 2 * StrUtil.length(shop.getArea());
+        weight += 2 * StrUtil.length(shop.getAddress());
+        weight += 2 * StrUtil.length(shop.getOpenHours());
+        return weight;
+    }
+
+
+    @Override
+    @Transactional
+    public Result saveShop(Shop shop) {
+        // 1. 写入数据库
+        save(shop);
+        // 2. 加入所属类型的GEO索引
+        addShopGeo(shop);
+        // 3. 加入布隆过滤器，删除之前可能缓存的空值，并通知其他节点
+        shopBloomFilter.put(shop.getId());
+        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + shop.getId());
+        cacheInvalidator.invalidate(RedisConstants.CACHE_SHOP_KEY + shop.getId());
+        // 4. 更新搜索索引
+        reindexAfterCommit(shop.getId());
+        return Result.ok(shop.getId());
+    }
+
+    @Override
+    @Transactional
+    public Result updateByIdCacheable(Shop shop) {
+        if (shop.getId() == null) {
+            return Result.fail("店铺id错误！");
+        }
+        // 1. 首先更新数据库
+        Shop old = getById(shop.getId());
+        if (old == null) {
+            return Result.fail("店铺不存在！");
+        }
+        updateById(shop);
+        // 2. 坐标或类型变了，更新GEO索引
+        if (shop.getX() != null || shop.getY() != null || shop.getTypeId() != null) {
+            if (shop.getTypeId() != null && !shop.getTypeId().equals(old.getTypeId())) {
+                stringRedisTemplate.opsForGeo().remove(RedisConstants.SHOP_GEO_KEY + old.getTypeId(), old.getId().toString());
+            }
+            addShopGeo(getById(shop.getId()));
+        }
+        // 3. 删除redis缓存，并清除所有节点的本地缓存
+        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + shop.getId());
+        cacheInvalidator.invalidate(RedisConstants.CACHE_SHOP_KEY + shop.getId());
+        // 4. 名称、商圈或地址变了，更新搜索索引
+        if (shop.getName() != null || shop.getArea() != null || shop.getAddress() != null) {
+            reindexAfterCommit(shop.getId());
+        }
+        return Result.ok();
+    }
+
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, String cursor, Double x, Double y) {
+        // 1. 没有坐标，直接按类型查询数据库
+        if (x == null || y == null) {
+            if (cursor != null) {
+                // 游标分页：按id往后取一页
+                PageCursor c = PageCursor.decode(cursor);
+                if (c == null) {
+                    return Result.fail("分页游标错误！");
+                }
+                List<Shop> shops = query()
+                        .eq("type_id", typeId)
+                        .gt(!c.isFirst(), "id", c.getId())
+                        .orderByAsc("id")
+                        .last("LIMIT " + (SystemConstants.DEFAULT_PAGE_SIZE + 1))
+                        .list();
+                return PageCursor.result(shops, SystemConstants.DEFAULT_PAGE_SIZE,
+                        shop -> PageCursor.encode(shop.getId(), shop.getId()));
+            }
+            // 不返回总数，不用查count
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        // 2. 计算分页参数，页码不合法时拒绝，太深的页不查，GEORADIUS的COUNT不会超过上限
+        if (current == null || current < 1) {
+            return Result.fail("页码错误！");
+        }
+        long offset = (long) (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        if (offset > SystemConstants.MAX_PAGE_OFFSET) {
+            return Result.ok(Collections.emptyList());
+        }
+        int from = (int) offset;
+        int end = from + SystemConstants.DEFAULT_PAGE_SIZE;
+        // 3. 按距离由近到远查出前end个 GEORADIUS key x y 5000 m WITHDIST ASC COUNT end
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(
+                RedisConstants.SHOP_GEO_KEY + typeId,
+                new Circle(new Point(x, y), new Distance(SystemConstants.SHOP_GEO_RADIUS)),
+                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(end)
+        );
+        if (results == null || results.getContent().size() <= from) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 4. 截取from ~ end的部分，记录每个店铺的距离
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> content = results.getContent();
+        List<Long> ids = new ArrayList<>(content.size() - from);
+        Map<Long, Double> distances = new HashMap<>(content.size() - from);
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : content.subList(from, content.size())) {
+            Long id = Long.valueOf(result.getContent().getName());
+            ids.add(id);
+            distances.put(id, result.getDistance().getValue());
+        }
+        // 5. 批量查询店铺，按距离的顺序返回
+        List<Shop> shops = listByIdsInOrder(ids);
+        shops.forEach(shop -> shop.setDistance(distances.get(shop.getId())));
+        return Result.ok(shops);
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current, String cursor) {
+        PageCursor c = null;
+        if (cursor != null) {
+            c = PageCursor.decode(cursor);
+            if (c == null) {
+                return Result.fail("分页游标错误！");
+            }
+        }
+        // 1. 没有关键字，或者索引还没加载完，直接查询数据库
+        if (StrUtil.isBlank(name) || !shopSearchIndex.isReady()) {
+            if (c != null) {
+                // 游标分页：按id往后取一页
+                List<Shop> shops = query()
+                        .like(StrUtil.isNotBlank(name), "name", name)
+                        .gt(!c.isFirst(), "id", c.getId())
+                        .orderByAsc("id")
+                        .last("LIMIT " + (SystemConstants.MAX_PAGE_SIZE + 1))
+                        .list();
+                return PageCursor.result(shops, SystemConstants.MAX_PAGE_SIZE,
+                        shop -> PageCursor.encode(shop.getId(), shop.getId()));
+            }
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        // 2. 从本地索引按相关度取当前页的id，游标中是已经返回的条数
+        long offset = c != null
+                ? (c.isFirst() ? 0 : c.getKey())
+                : (long) (Math.max(current, 1) - 1) * SystemConstants.MAX_PAGE_SIZE;
+        if (offset > SystemConstants.MAX_PAGE_OFFSET) {
+            return c != null ? Result.fail("分页游标错误！") : Result.ok(Collections.emptyList());
+        }
+        int from = (int) offset;
+        List<Long> ids = shopSearchIndex.search(name, from, SystemConstants.MAX_PAGE_SIZE + 1);
+        // 3. 批量查询店铺，按相关度的顺序返回
+        boolean hasMore = ids.size() > SystemConstants.MAX_PAGE_SIZE;
+        if (hasMore) {
+            ids = ids.subList(0, SystemConstants.MAX_PAGE_SIZE);
+        }
+        List<Shop> shops = ids.isEmpty() ? Collections.emptyList() : listByIdsInOrder(ids);
+        if (c == null) {
+            return Result.ok(shops);
+        }
+        return Result.ok(shops, hasMore ? PageCursor.encode(from + SystemConstants.MAX_PAGE_SIZE, 0) : null);
+    }
+
+    @Override
+    public LocalDateTime loadSearchIndex() {
+        long begin = System.currentTimeMillis();
+        Set<Long> loaded = new HashSet<>();
+        LocalDateTime maxUpdateTime = indexShops(null, loaded);
+        // 全量重建时移除数据库中已经删除的店铺，删除没有更新时间可查
+        int removed = 0;
+        if (shopSearchIndex.isReady() && !loaded.isEmpty()) {
+            removed = shopSearchIndex.removeAbsent(loaded, Collections.max(loaded));
+        }
+        shopSearchIndex.markReady();
+        log.info("店铺搜索索引加载完成，共{}个店铺，移除{}个已删除的店铺，耗时{}ms",
+                loaded.size(), removed, System.currentTimeMillis() - begin);
+        return maxUpdateTime;
+    }
+
+    @Override
+    public LocalDateTime refreshSearchIndex(LocalDateTime since) {
+        // 往前多查一段时间，更新时间早于since、但在上次查询之后才提交的事务也能查到
+        LocalDateTime from = since == null ? null : since.minusSeconds(SystemConstants.SHOP_SEARCH_REFRESH_GRACE_SECONDS);
+        Set<Long> loaded = new HashSet<>();
+        LocalDateTime maxUpdateTime = indexShops(from, loaded);
+        if (!loaded.isEmpty()) {
+            log.debug("店铺搜索索引增量更新了{}个店铺", loaded.size());
+        }
+        if (maxUpdateTime == null || (since != null && maxUpdateTime.isBefore(since))) {
+            return since;
+        }
+        return maxUpdateTime;
+    }
 
     /**
-     * 用逻辑过期时间，解决热点数据缓存击穿问题
+     * 按主键分批查询更新时间不早于from的店铺并写入索引，只查建索引需要的字段
      *
-     * @param id
-     * @return
+     * @param from 为null时查询所有店铺
+     * @param loaded 写入索引的店铺id
+     * @return 查到的最大更新时间，没有店铺时返回null
+     */
+    private LocalDateTime indexShops(LocalDateTime from, Set<Long> loaded) {
+        long lastId = 0;
+        LocalDateTime maxUpdateTime = null;
+        while (true) {
+            List<Shop> shops = query()
+                    .select("id", "name", "area", "address", "update_time")
+                    .ge(from != null, "update_time", from)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + SystemConstants.SHOP_SEARCH_LOAD_BATCH_SIZE)
+                    .list();
+            for (Shop shop : shops) {
+                shopSearchIndex.put(shop);
+                loaded.add(shop.getId());
+                LocalDateTime updateTime = shop.getUpdateTime();
+                if (updateTime != null && (maxUpdateTime == null || updateTime.isAfter(maxUpdateTime))) {
+                    maxUpdateTime = updateTime;
+                }
+            }
+            if (shops.size() < SystemConstants.SHOP_SEARCH_LOAD_BATCH_SIZE) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+        }
+        return maxUpdateTime;
+    }
+
+    /**
+     * 事务提交后通知所有节点（包括本节点）更新这个店铺的搜索索引
      */
-    private Shop queryByIdLogicalExpire(Long id) {
-        // 1. 查redis缓存
-        String dataJsonStr = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
-        // 2. 缓存不存在，直接返回，因为热点数据都是预热过的，如果缓存不存在，则说明数据库也不存在。
-        if (dataJsonStr == null)
-            return null;
-        // 3. 查询逻辑过期时间
-        // 3.1 反序列化RedisData
-        RedisData data = JSONUtil.toBean(dataJsonStr, RedisData.class);
-        Shop shop = JSONUtil.toBean((JSONObject) data.getData(), Shop.class);
-        // 3.2 查过期时间
-        if (data.getExpireTime().isAfter(LocalDateTime.now())) {
-            // 4. 未过期，返回店铺数据
-            return shop;
-        }
-        // 5. 过期了
-        // 5.1 获取锁
-        if (tryLock(RedisConstants.LOCK_SHOP_KEY + id)) {
-            // 5.2 获取锁成功，开启一个线程将shop数据存入redis，然后释放锁
-            QUERY_SHOP_EXECUTORS.submit(() -> {
-                try {
-                    shop2Redis(id, 20L);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                } finally {
-                    unlock(RedisConstants.LOCK_SHOP_KEY + id);
+    private void reindexAfterCommit(Long id) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cacheInvalidator.invalidate(RedisConstants.SHOP_SEARCH_KEY + id);
                 }
             });
+        } else {
+            cacheInvalidator.invalidate(RedisConstants.SHOP_SEARCH_KEY + id);
         }
-        // 5.3 获取锁失败，直接返回shop数据
-        return shop;
     }
 
+    private void reindex(Long id) {
+        Shop shop = getById(id);
+        if (shop == null) {
+            shopSearchIndex.remove(id);
+        } else {
+            shopSearchIndex.put(shop);
+        }
+    }
 
     /**
-     * 解决缓存穿透的queryById
-     *
-     * @param id
-     * @return
+     * 按给定id的顺序批量查询店铺，已经删除的店铺跳过
      */
-    private Shop queryByIdPassThrough(Long id) {
-        // 1. 直接从redis中查
-        String shopJsonStr = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
-        // 2. 如果redis命中，并且不是空串，直接返回结果；
-        if (StrUtil.isNotBlank(shopJsonStr)) { // blank: null, "", " ", "\t"
-            return JSONUtil.toBean(shopJsonStr, Shop.class);
-        }
-        // 3. 没有命中，或者是空串。如果是空串，则店铺在数据库中不存在（缓存空串解决缓存穿透问题）
-        if (shopJsonStr != null) // redis命中了，是空串
-            return null;
-
-        // 4. 缓存没有命中，查数据库
-        Shop shop = this.getById(id);
-        if (shop == null) {
-            // 如果数据库中没有数据，缓存空串解决缓存穿透问题，返回错误信息
-            stringRedisTemplate.opsForValue().set(
-                    RedisConstants.CACHE_SHOP_KEY + id,
-                    "",
-                    RedisConstants.CACHE_NULL_TTL,
-                    TimeUnit.MINUTES
-            );
-            return null;
-        }
-        // 5. 数据库中有数据，将数据缓存到redis
-        stringRedisTemplate.opsForValue().set(
-                RedisConstants.CACHE_SHOP_KEY + id,
-                JSONUtil.toJsonStr(shop),
-                RedisConstants.CACHE_SHOP_TTL,
-                TimeUnit.MINUTES
-        );
-        return shop;
+    private List<Shop> listByIdsInOrder(List<Long> ids) {
+        Map<Long, Shop> shopMap = mapByIds(ids);
+        List<Shop> shops = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Shop shop = shopMap.get(id);
+            if (shop != null) {
+                shops.add(shop);
+            }
+        }
+        return shops;
     }
 
     /**
-     * 解决缓存穿透和缓存击穿的queryBuId
-     *
-     * @param id
-     * @return
+     * 一条IN查询读出一批店铺，不存在的id不在结果中
      */
-    private Shop queryByIdBreakDown(Long id) {
-        String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
+    private Map<Long, Shop> mapByIds(List<Long> ids) {
+        return listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+    }
+
+    @Override
+    public void loadShopGeo() {
+        // 多个节点同时启动时只需要一个加载
+        ILock lock = lockFactory.getLock(RedisConstants.SHOP_GEO_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
         try {
-            boolean hasLock = false;
-            int maxSpin = 100;   // 设置最大自旋次数，自旋次数超过，返回错误信息
-            while (maxSpin > 0) {
-                // 1. 直接从redis中查
-                String shopJsonStr = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_KEY + id);
-                // 2. 如果redis命中，并且不是空串，直接返回结果；
-                if (StrUtil.isNotBlank(shopJsonStr)) { // blank: null, "", " ", "\t"
-                    return JSONUtil.toBean(shopJsonStr, Shop.class);
-                }
-                // 3. 没有命中，或者是空串。如果是空串，则店铺在数据库中不存在（缓存空串解决缓存穿透问题）
-                if (shopJsonStr != null) // redis命中了，是空串
-                    return null;
-
-                // 4. 缓存没有命中，查数据库
-                // 4.1 为了解决缓存击穿问题，访问数据库时，加锁，保证只有一个请求会访问数据库
-                hasLock = tryLock(lockKey);
-                // 4.2 如果拿到了锁，访问数据库
-                if (hasLock) {
-                    Shop shop = this.getById(id);
-                    Thread.sleep(300); // 模拟复制业务，需要消耗较长时间来查询数据库
-                    if (shop == null) {
-                        // 如果数据库中没有数据，缓存空串解决缓存穿透问题，返回错误信息
-                        stringRedisTemplate.opsForValue().set(
-                                RedisConstants.CACHE_SHOP_KEY + id,
-                                "",
-                                RedisConstants.CACHE_NULL_TTL,
-                                TimeUnit.MINUTES
-                        );
+            long begin = System.currentTimeMillis();
+            long lastId = 0;
+            long total = 0;
+            while (true) {
+                // 按主键分批查询，每批一次pipeline写入
+                List<Shop> shops = query()
+                        .select("id", "type_id", "x", "y")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + SystemConstants.SHOP_GEO_LOAD_BATCH_SIZE)
+                        .list();
+                if (!shops.isEmpty()) {
+                    stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                        for (Shop shop : shops) {
+                            if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                                continue;
+                            }
+                            connection.geoAdd(
+                                    (RedisConstants.SHOP_GEO_KEY + shop.getTypeId()).getBytes(StandardCharsets.UTF_8),
+                                    new Point(shop.getX(), shop.getY()),
+                                    shop.getId().toString().getBytes(StandardCharsets.UTF_8)
+                            );
+                        }
                         return null;
-                    }
-                    // 5. 数据库中有数据，将数据缓存到redis
-                    stringRedisTemplate.opsForValue().set(
-                            RedisConstants.CACHE_SHOP_KEY + id,
-                            JSONUtil.toJsonStr(shop),
-                            RedisConstants.CACHE_SHOP_TTL,
-                            TimeUnit.MINUTES
-                    );
-                    return shop;
+                    });
+                }
+                total += shops.size();
+                if (shops.size() < SystemConstants.SHOP_GEO_LOAD_BATCH_SIZE) {
+                    break;
                 }
-                Thread.sleep(50);   // 自旋过程中，休眠50ms
-                maxSpin--;
+                lastId = shops.get(shops.size() - 1).getId();
             }
-            // 超过自选次数，报异常或返回错误信息等
-            return null;
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            log.info("店铺GEO索引加载完成，共{}个店铺，耗时{}ms", total, System.currentTimeMillis() - begin);
         } finally {
-            unlock(lockKey);
-        }
-    }
-
-    @Override
-    @Transactional
-    public Result updateByIdCacheable(Shop shop) {
-        if (shop.getId() == null) {
-            return Result.fail("店铺id错误！");
+            lock.unlock();
         }
-        // 1. 首先更新数据库
-        updateById(shop);
-        // 2. 删除redis缓存
-        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_KEY + shop.getId());
-        return Result.ok();
     }
 
     /**
-     * 用redis的setnx命令来获取一个锁
-     *
-     * @param key
-     * @return
+     * 把店铺加入所属类型的GEO索引，没有坐标的跳过
      */
-    private boolean tryLock(String key) {
-        // 设置过期时间，避免死锁
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", RedisConstants.LOCK_SHOP_TTL, TimeUnit.MINUTES);
-        return BooleanUtil.isTrue(flag);
-    }
-
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    private void addShopGeo(Shop shop) {
+        if (shop == null || shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            return;
+        }
+        stringRedisTemplate.opsForGeo().add(
+                RedisConstants.SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), shop.getId().toString());
     }
 
     /**
@@ -225,16 +510,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      * @param id
      * @param seconds: 逻辑过期时间，持续多少秒
      */
-    public void shop2Redis(Long id, Long seconds) throws InterruptedException {
+    public void shop2Redis(Long id, Long seconds) {
         Shop shop = getById(id);
-        Thread.sleep(200);
-        RedisData<Shop> data = new RedisData<>(
-                shop,
-                LocalDateTime.now().plusSeconds(seconds)
-        );
-        stringRedisTemplate.opsForValue().set(
-                RedisConstants.CACHE_SHOP_KEY + id,
-                JSONUtil.toJsonStr(data)
-        );
+        cacheClient.setWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY + id, shop, seconds, TimeUnit.SECONDS);
     }
 }
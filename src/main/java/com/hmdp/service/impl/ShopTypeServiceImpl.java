@@ -1,16 +1,23 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.lang.TypeReference;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.Metrics;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SystemConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.lang.reflect.Type;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -25,35 +32,88 @@ import java.util.concurrent.TimeUnit;
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    private static final Type SHOP_TYPE_LIST = new TypeReference<List<ShopType>>() {
+    }.getType();
+
     final
     StringRedisTemplate stringRedisTemplate;
 
-    public ShopTypeServiceImpl(StringRedisTemplate stringRedisTemplate) {
+    /**
+     * 店铺类型列表的本地缓存，只有一个条目
+     */
+    final
+    LocalCache<String, List<ShopType>> shopTypeLocalCache;
+
+    final
+    CacheInvalidator cacheInvalidator;
+
+    final
+    CacheClient cacheClient;
+
+    public ShopTypeServiceImpl(StringRedisTemplate stringRedisTemplate,
+                               CacheInvalidator cacheInvalidator,
+                               CacheClient cacheClient,
+                               Metrics metrics) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheInvalidator = cacheInvalidator;
+        this.cacheClient = cacheClient;
+        this.shopTypeLocalCache = new LocalCache<>(
+                1,
+                Long.MAX_VALUE,
+                SystemConstants.LOCAL_SHOP_TYPE_TTL,
+                TimeUnit.SECONDS,
+                List::size
+        );
+        metrics.register("cache.shoptype.local", shopTypeLocalCache::stats);
+        cacheInvalidator.subscribe(RedisConstants.CACHE_SHOP_TYPE_KEY, key -> shopTypeLocalCache.invalidateAll());
     }
 
     @Override
     public Result listCacheable() {
-        // 1. 从redis中查
-        String shopTypeJsonStr = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_TYPE_KEY);
-        // 2. redis不为空，返回
-        if (shopTypeJsonStr != null) {
-            List<ShopType> typeList = JSONUtil.toList(shopTypeJsonStr, ShopType.class);
-            return Result.ok(typeList);
-        }
-        // 3. redis未缓存，从数据库查
-        List<ShopType> typeList = this.query().orderByAsc("sort").list();
-        // 4. 如果数据库查到list大小位0，返回错误
-        if (typeList == null || typeList.size() == 0) {
-            return Result.fail("shopType error!");
+        // 0. 先查本地缓存
+        List<ShopType> localList = shopTypeLocalCache.get(RedisConstants.CACHE_SHOP_TYPE_KEY);
+        if (localList != null) {
+            return Result.ok(localList);
         }
-        // 5. 缓存进redis，返回
-        stringRedisTemplate.opsForValue().set(
+        long stamp = cacheInvalidator.stamp();
+        // 1. 查redis，未命中再查数据库，并写入redis
+        List<ShopType> typeList = cacheClient.queryWithPassThrough(
                 RedisConstants.CACHE_SHOP_TYPE_KEY,
-                JSONUtil.toJsonStr(typeList),
+                SHOP_TYPE_LIST,
+                () -> {
+                    List<ShopType> list = this.query().orderByAsc("sort").list();
+                    return list.isEmpty() ? null : list;
+                },
                 RedisConstants.CACHE_SHOP_TTL,
                 TimeUnit.MINUTES
         );
+        // 2. 如果数据库查到list大小为0，返回错误
+        if (typeList == null) {
+            return Result.fail("shopType error!");
+        }
+        // 3. 存入本地缓存
+        putLocal(typeList, stamp);
         return Result.ok(typeList);
     }
+
+    @Override
+    @Transactional
+    public Result updateByIdCacheable(ShopType shopType) {
+        if (shopType.getId() == null) {
+            return Result.fail("店铺类型id错误！");
+        }
+        // 1. 首先更新数据库
+        updateById(shopType);
+        // 2. 删除redis缓存，并清除所有节点的本地缓存
+        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_TYPE_KEY);
+        cacheInvalidator.invalidate(RedisConstants.CACHE_SHOP_TYPE_KEY);
+        return Result.ok();
+    }
+
+    private void putLocal(List<ShopType> typeList, long stamp) {
+        // 查询期间被更新过的不存，以免存入旧数据
+        if (!cacheInvalidator.isInvalidatedSince(RedisConstants.CACHE_SHOP_TYPE_KEY, stamp)) {
+            shopTypeLocalCache.put(RedisConstants.CACHE_SHOP_TYPE_KEY, typeList);
+        }
+    }
 }
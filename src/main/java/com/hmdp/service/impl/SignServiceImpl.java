@@ -0,0 +1,252 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Sign;
+import com.hmdp.mapper.SignMapper;
+import com.hmdp.service.ISignService;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisLockFactory;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * <p>
+ *  服务实现类
+ * </p>
+ * 签到记录放在redis的bitmap中，每个用户每个月一个key sign:{userId}:{yyyyMM}，第几天就是第几位，
+ * 一个月最多31位。连续签到天数用BITFIELD一次取出当月到今天为止的所有位，再数末尾连续的1；
+ * 本月签到天数用BITCOUNT。每月初把上个月的bitmap批量归档到tb_sign，一个用户一个月一行。
+ *
+ * @author 虎哥
+ * @since 2021-12-22
+ */
+@Slf4j
+@Service
+public class SignServiceImpl extends ServiceImpl<SignMapper, Sign> implements ISignService {
+
+    private static final DateTimeFormatter MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+    /**
+     * 归档时每个月读取的位数
+     */
+    private static final int MONTH_BITS = 31;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisLockFactory lockFactory;
+
+    @Override
+    public Result sign() {
+        // 1. 获取当前登录用户和日期
+        Long userId = UserHolder.getUser().getId();
+        LocalDate now = LocalDate.now();
+        // 2. 写入redis SETBIT key offset 1
+        stringRedisTemplate.opsForValue().setBit(signKey(userId, YearMonth.from(now)), now.getDayOfMonth() - 1, true);
+        return Result.ok();
+    }
+
+    @Override
+    public Result signStreak() {
+        // 1. 获取当前登录用户和日期
+        Long userId = UserHolder.getUser().getId();
+        LocalDate now = LocalDate.now();
+        int dayOfMonth = now.getDayOfMonth();
+        YearMonth month = YearMonth.from(now);
+        // 2. 取出本月截至今天的所有位 BITFIELD key GET u{dayOfMonth} 0，今天是最低位
+        long bits = monthBits(signKey(userId, month), dayOfMonth);
+        // 3. 往前数，每个月都签满了才继续数再前一个月
+        return Result.ok(streak(month, dayOfMonth, bits, m -> archivedMonthBits(userId, m)));
+    }
+
+    /**
+     * 从今天往前数连续签到的天数
+     *
+     * @param month           本月
+     * @param dayOfMonth      今天是本月第几天
+     * @param bits            本月截至今天的位，今天是最低位
+     * @param monthBitsLoader 取出之前某个月的所有位，月末是最低位
+     */
+    static int streak(YearMonth month, int dayOfMonth, long bits, Function<YearMonth, Long> monthBitsLoader) {
+        int count = trailingOnes(bits);
+        int streak = count;
+        // 读过的这个月每天都签了，继续往前数一个月
+        while (count == dayOfMonth) {
+            month = month.minusMonths(1);
+            dayOfMonth = month.lengthOfMonth();
+            count = trailingOnes(monthBitsLoader.apply(month));
+            streak += count;
+        }
+        return streak;
+    }
+
+    @Override
+    public Result signCountOfMonth() {
+        Long userId = UserHolder.getUser().getId();
+        byte[] key = signKey(userId, YearMonth.now()).getBytes(StandardCharsets.UTF_8);
+        // BITCOUNT key
+        Long count = stringRedisTemplate.execute((RedisCallback<Long>) connection -> connection.bitCount(key));
+        return Result.ok(count == null ? 0 : count);
+    }
+
+    /**
+     * 每月初归档上个月的签到记录
+     */
+    @Scheduled(cron = SystemConstants.SIGN_ARCHIVE_CRON)
+    public void archiveLastMonth() {
+        try {
+            archiveMonth(YearMonth.now().minusMonths(1));
+        } catch (Exception e) {
+            // redis中的key还在，下次或手动重新归档
+            log.error("归档签到记录失败", e);
+        }
+    }
+
+    @Override
+    public long archiveMonth(YearMonth month) {
+        // 多个节点只需要一个归档
+        ILock lock = lockFactory.getLock(RedisConstants.USER_SIGN_KEY + "archive");
+        if (!lock.tryLock()) {
+            return 0;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            long total = 0;
+            // 1. SCAN找出这个月所有用户的key，不用KEYS，避免阻塞redis
+            ScanOptions options = ScanOptions.scanOptions()
+                    .match(RedisConstants.USER_SIGN_KEY + "*:" + month.format(MONTH_FORMATTER))
+                    .count(SystemConstants.SIGN_ARCHIVE_BATCH_SIZE)
+                    .build();
+            List<String> keys = new ArrayList<>(SystemConstants.SIGN_ARCHIVE_BATCH_SIZE);
+            try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                    (RedisCallback<Cursor<byte[]>>) connection -> connection.scan(options))) {
+                while (cursor.hasNext()) {
+                    keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                    if (keys.size() >= SystemConstants.SIGN_ARCHIVE_BATCH_SIZE) {
+                        total += archiveKeys(keys, month);
+                        keys.clear();
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("关闭SCAN游标失败", e);
+            }
+            if (!keys.isEmpty()) {
+                total += archiveKeys(keys, month);
+            }
+            log.info("{}的签到记录归档完成，共{}个用户，耗时{}ms", month, total, System.currentTimeMillis() - begin);
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归档一批key：一次pipeline读出所有bitmap，一条insert语句写入数据库，再删除key
+     */
+    private int archiveKeys(List<String> keys, YearMonth month) {
+        // 1. 一次pipeline读出每个key的31位 BITFIELD key GET u31 0
+        BitFieldSubCommands get = BitFieldSubCommands.create()
+                .get(BitFieldSubCommands.BitFieldType.unsigned(MONTH_BITS)).valueAt(0);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.bitField(key.getBytes(StandardCharsets.UTF_8), get);
+            }
+            return null;
+        });
+        // 2. 写入数据库，没有签到的跳过
+        List<Sign> signs = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            long bits = firstValue(results.get(i));
+            if (bits == 0) {
+                continue;
+            }
+            String key = keys.get(i);
+            Long userId = Long.valueOf(key.substring(RedisConstants.USER_SIGN_KEY.length(), key.lastIndexOf(':')));
+            signs.add(new Sign()
+                    .setUserId(userId)
+                    .setYear(month.getYear())
+                    .setMonth(month.getMonthValue())
+                    .setBits((int) bits));
+        }
+        if (!signs.isEmpty()) {
+            getBaseMapper().upsertBatch(signs);
+        }
+        // 3. 写入成功后再删除key，失败时key还在，重新归档是按位合并的
+        stringRedisTemplate.delete(keys);
+        return signs.size();
+    }
+
+    /**
+     * 取出bitmap的前n位，第n位是最低位
+     */
+    private long monthBits(String key, int n) {
+        List<Long> result = stringRedisTemplate.opsForValue().bitField(key, BitFieldSubCommands.create()
+                .get(BitFieldSubCommands.BitFieldType.unsigned(n)).valueAt(0));
+        return firstValue(result);
+    }
+
+    /**
+     * 取出一个月的所有位，月末是最低位。先查redis，已经归档的查数据库
+     */
+    private long archivedMonthBits(Long userId, YearMonth month) {
+        String key = signKey(userId, month);
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return monthBits(key, month.lengthOfMonth());
+        }
+        Sign sign = query()
+                .eq("user_id", userId)
+                .eq("year", month.getYear())
+                .eq("month", month.getMonthValue())
+                .one();
+        if (sign == null || sign.getBits() == null) {
+            return 0;
+        }
+        return archivedBits(sign.getBits(), month);
+    }
+
+    /**
+     * 数据库中存的是31位，去掉月末之后的位，月末变成最低位
+     */
+    static long archivedBits(int bits, YearMonth month) {
+        return (bits & 0xFFFFFFFFL) >>> (MONTH_BITS - month.lengthOfMonth());
+    }
+
+    private static long firstValue(Object result) {
+        if (!(result instanceof List) || ((List<?>) result).isEmpty()) {
+            return 0;
+        }
+        Object value = ((List<?>) result).get(0);
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    /**
+     * 末尾连续的1的个数，也就是连续签到的天数
+     */
+    static int trailingOnes(long bits) {
+        return Long.numberOfTrailingZeros(~bits);
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return RedisConstants.USER_SIGN_KEY + userId + ":" + month.format(MONTH_FORMATTER);
+    }
+}
@@ -4,8 +4,14 @@ import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BloomFilter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisConstants;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.concurrent.TimeUnit;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +23,25 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private BloomFilter userBloomFilter;
+
+    @Override
+    public UserInfo queryById(Long userId) {
+        // 布隆过滤器判定用户不存在，直接返回
+        if (!userBloomFilter.mightContain(userId)) {
+            return null;
+        }
+        return cacheClient.queryWithPassThrough(
+                RedisConstants.CACHE_USER_INFO_KEY,
+                userId,
+                UserInfo.class,
+                this::getById,
+                RedisConstants.CACHE_USER_INFO_TTL,
+                TimeUnit.MINUTES
+        );
+    }
 }
@@ -1,10 +1,10 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
-import cn.hutool.core.lang.UUID;
 import cn.hutool.core.lang.generator.UUIDGenerator;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
@@ -13,20 +13,32 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilter;
+import com.hmdp.utils.CacheInvalidator;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SessionStore;
 import com.hmdp.utils.SystemConstants;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.stereotype.Service;
 
 import javax.servlet.http.HttpSession;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -43,8 +55,28 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     final
     StringRedisTemplate stringRedisTemplate;
 
-    public UserServiceImpl(StringRedisTemplate stringRedisTemplate) {
+    /**
+     * 所有用户id的布隆过滤器，拦截不存在的id
+     */
+    final
+    BloomFilter userBloomFilter;
+
+    final
+    CacheInvalidator cacheInvalidator;
+
+    final
+    SessionStore sessionStore;
+
+    public UserServiceImpl(StringRedisTemplate stringRedisTemplate,
+                           @Qualifier("userBloomFilter") BloomFilter userBloomFilter,
+                           CacheInvalidator cacheInvalidator,
+                           SessionStore sessionStore) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.userBloomFilter = userBloomFilter;
+        this.cacheInvalidator = cacheInvalidator;
+        this.sessionStore = sessionStore;
+        // 其他节点新建用户时，把id加入本节点的布隆过滤器
+        cacheInvalidator.subscribe(RedisConstants.CACHE_USER_INFO_KEY, id -> userBloomFilter.put(Long.parseLong(id)));
     }
 
     @Override
@@ -87,21 +119,76 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             user.setPhone(phone);
             user.setNickName(SystemConstants.USER_NICK_NAME_PREFIX + RandomUtil.randomString(10));
             this.save(user);
+            // 加入布隆过滤器，删除之前可能缓存的空值，并通知其他节点
+            userBloomFilter.put(user.getId());
+            stringRedisTemplate.delete(Arrays.asList(
+                    RedisConstants.CACHE_USER_INFO_KEY + user.getId(),
+                    RedisConstants.CACHE_USER_PROFILE_KEY + user.getId()));
+            cacheInvalidator.invalidate(RedisConstants.CACHE_USER_INFO_KEY + user.getId());
         }
         UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
-        // 生成一个token，将其作为保存用户的key，将用户保存到redis
-        // 生成token
-        String token = UUID.randomUUID().toString(true);
-        // 将User存到redis，用hash形式
-        Map<String, Object> userMap = BeanUtil.beanToMap(
-                userDTO,
-                new HashMap<>(),
-                CopyOptions.create().setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString())
-        );
-        stringRedisTemplate.opsForHash().putAll(RedisConstants.LOGIN_USER_KEY + token, userMap);
-        stringRedisTemplate.expire(RedisConstants.LOGIN_USER_KEY + token, RedisConstants.LOGIN_USER_TTL, TimeUnit.SECONDS);
+        // 生成一个token，将用户保存到redis
+        String token = sessionStore.create(userDTO);
                 //session.setAttribute(SystemConstants.STR_USER, user);
         // 将token返回给客户端
         return Result.ok(token);
     }
+
+    @Override
+    public Result logout(String token) {
+        // 删除会话，签名令牌模式下加入退出登录的名单
+        sessionStore.remove(token);
+        return Result.ok();
+    }
+
+    @Override
+    public Map<Long, UserDTO> queryUserProfiles(Collection<Long> userIds) {
+        Map<Long, UserDTO> profiles = new HashMap<>();
+        if (userIds == null || userIds.isEmpty()) {
+            return profiles;
+        }
+        // 1. 去重，一次multiGet查redis
+        List<Long> ids = userIds.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        List<String> keys = ids.stream().map(id -> RedisConstants.CACHE_USER_PROFILE_KEY + id).collect(Collectors.toList());
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        List<Long> misses = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String json = values == null ? null : values.get(i);
+            if (json == null) {
+                misses.add(ids.get(i));
+            } else if (StrUtil.isNotBlank(json)) {
+                // 空串表示用户不存在
+                profiles.put(ids.get(i), JSONUtil.toBean(json, UserDTO.class));
+            }
+        }
+        if (misses.isEmpty()) {
+            return profiles;
+        }
+        // 2. 未命中的用一条IN查询
+        Map<String, String> toCache = new HashMap<>();
+        for (User user : listByIds(misses)) {
+            UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
+            profiles.put(user.getId(), userDTO);
+            toCache.put(RedisConstants.CACHE_USER_PROFILE_KEY + user.getId(), JSONUtil.toJsonStr(userDTO));
+        }
+        // 3. 一次pipeline写回redis，不存在的用户缓存空串
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                ValueOperations<String, String> ops = (ValueOperations<String, String>) operations.opsForValue();
+                for (Long id : misses) {
+                    String key = RedisConstants.CACHE_USER_PROFILE_KEY + id;
+                    String json = toCache.get(key);
+                    if (json != null) {
+                        ops.set(key, json, RedisConstants.CACHE_USER_PROFILE_TTL, TimeUnit.MINUTES);
+                    } else {
+                        ops.set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                    }
+                }
+                return null;
+            }
+        });
+        return profiles;
+    }
 }
@@ -1,20 +1,382 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.collection.CollUtil;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.LatencyRecorder;
+import com.hmdp.utils.Metrics;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisLockFactory;
+import com.hmdp.utils.RedisStreams;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 秒杀下单分成两步：
+ * <p>
+ * 1. 请求线程执行lua脚本，在redis中原子地完成时间校验、库存校验、一人一单校验、扣减库存，
+ * 并把订单写入redis的stream，整个过程只访问一次redis，不访问数据库；<br>
+ * 2. 后台消费者线程从stream中批量读取订单，批量写入数据库并扣减数据库库存，成功后再ack。
+ * 没有ack的订单留在pending-list中，启动时和出异常后逐个重新处理，
+ * 同一个订单失败次数超过上限的转入死信stream并ack，不阻塞后面的订单；
+ * 数据库库存不够扣减时整批回滚，这些订单按失败处理，最终进入死信，不会在数据库中超卖。<br>
+ * 3. 每个进程是一个独立的消费者，定时认领其他消费者空闲太久的订单，宕机后没有再启动的节点的订单不会丢失。
+ * </p>
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * lua脚本的返回值对应的错误信息，下标就是返回值
+     */
+    private static final String[] SECKILL_ERRORS = {null, "库存不足！", "不能重复下单！", "秒杀尚未开始！", "秒杀已经结束！", "秒杀券不存在！"};
+    private static final String[] SECKILL_RESULTS = {"success", "noStock", "duplicate", "notStarted", "ended", "notFound"};
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    @Resource
+    private RedisLockFactory lockFactory;
+
+    @Resource
+    private Metrics metrics;
+
+    private final ExecutorService orderExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, "seckill-order"));
+    private volatile boolean running = true;
+    private String consumerName;
+
+    private final LongAdder[] resultCounts = new LongAdder[SECKILL_ERRORS.length];
+    private final LongAdder persistedCount = new LongAdder();
+    private final LongAdder duplicateCount = new LongAdder();
+    private final LongAdder retryCount = new LongAdder();
+    private final LongAdder deadCount = new LongAdder();
+    private final LongAdder claimedCount = new LongAdder();
+    /**
+     * 扣减数据库库存失败的次数，不为0说明redis和数据库的库存不一致，对应的订单会进入死信，需要人工处理
+     */
+    private final LongAdder stockMismatchCount = new LongAdder();
+    private final LatencyRecorder seckillLatency = new LatencyRecorder();
+    private final LatencyRecorder batchLatency = new LatencyRecorder();
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < resultCounts.length; i++) {
+            resultCounts[i] = new LongAdder();
+        }
+        metrics.register("seckill", this::stats);
+        consumerName = RedisStreams.consumerName();
+        RedisStreams.createGroupIfAbsent(stringRedisTemplate,
+                RedisConstants.SECKILL_ORDER_STREAM, RedisConstants.SECKILL_ORDER_GROUP);
+        orderExecutor.submit(this::consumeOrders);
+    }
+
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        running = false;
+        orderExecutor.shutdown();
+        // 最多等一次阻塞读的时间，没处理完的订单留在pending-list中，下次启动再处理
+        orderExecutor.awaitTermination(SystemConstants.SECKILL_ORDER_BLOCK_MILLIS * 2, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Result seckillVoucher(Long voucherId) {
+        long begin = System.nanoTime();
+        Long userId = UserHolder.getUser().getId();
+        long orderId = redisIdWorker.nextId("order");
+        // 1. 执行lua脚本，校验资格、扣减库存、发送订单消息
+        Long code = stringRedisTemplate.execute(
+                SECKILL_SCRIPT,
+                Arrays.asList(
+                        RedisConstants.SECKILL_STOCK_KEY + voucherId,
+                        RedisConstants.SECKILL_TIME_KEY + voucherId,
+                        RedisConstants.SECKILL_ORDER_KEY + voucherId,
+                        RedisConstants.SECKILL_ORDER_STREAM
+                ),
+                voucherId.toString(), userId.toString(), String.valueOf(orderId),
+                String.valueOf(System.currentTimeMillis())
+        );
+        int r = code == null ? SECKILL_ERRORS.length - 1 : code.intValue();
+        resultCounts[r].increment();
+        seckillLatency.recordSince(begin);
+        // 2. 没有购买资格
+        if (r != 0) {
+            return Result.fail(SECKILL_ERRORS[r]);
+        }
+        // 3. 返回订单id，订单由后台线程写入数据库
+        return Result.ok(orderId);
+    }
+
+    private void consumeOrders() {
+        // 先处理上次没有处理完的订单
+        handlePendingList();
+        long lastClaimTime = 0;
+        while (running) {
+            try {
+                // 0. 定时认领宕机节点遗留的订单
+                if (System.currentTimeMillis() - lastClaimTime >= SystemConstants.STREAM_CLAIM_INTERVAL) {
+                    lastClaimTime = System.currentTimeMillis();
+                    claimIdleOrders();
+                }
+                // 1. 从stream中批量读取新订单 XREADGROUP GROUP g1 c1 COUNT 200 BLOCK 2000 STREAMS stream.orders >
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, consumerName),
+                        StreamReadOptions.empty()
+                                .count(SystemConstants.SECKILL_ORDER_BATCH_SIZE)
+                                .block(Duration.ofMillis(SystemConstants.SECKILL_ORDER_BLOCK_MILLIS)),
+                        StreamOffset.create(RedisConstants.SECKILL_ORDER_STREAM, ReadOffset.lastConsumed())
+                );
+                // 2. 没有订单，继续下一次读取
+                if (CollUtil.isEmpty(records)) {
+                    continue;
+                }
+                // 3. 写入数据库并ack
+                handleRecords(records);
+            } catch (Exception e) {
+                log.error("处理秒杀订单异常", e);
+                handlePendingList();
+            }
+        }
+    }
+
+    /**
+     * 认领其他消费者超过一段时间没有ack的订单，按pending-list的流程逐个加用户锁、去重后写入
+     */
+    private void claimIdleOrders() {
+        int claimed = RedisStreams.claimIdle(stringRedisTemplate,
+                RedisConstants.SECKILL_ORDER_STREAM, RedisConstants.SECKILL_ORDER_GROUP, consumerName,
+                Duration.ofMillis(SystemConstants.STREAM_CLAIM_MIN_IDLE_MILLIS));
+        if (claimed > 0) {
+            claimedCount.add(claimed);
+            log.warn("认领了其他消费者遗留的{}个秒杀订单", claimed);
+            handlePendingList();
+        }
+        RedisStreams.deleteIdleConsumers(stringRedisTemplate,
+                RedisConstants.SECKILL_ORDER_STREAM, RedisConstants.SECKILL_ORDER_GROUP,
+                Duration.ofMillis(SystemConstants.STREAM_CONSUMER_EXPIRE_MILLIS));
+    }
+
+    private void handlePendingList() {
+        while (running) {
+            try {
+                // 1. 读取pending-list中已投递但没有ack的订单 XREADGROUP GROUP g1 c1 COUNT 200 STREAMS stream.orders 0
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, consumerName),
+                        StreamReadOptions.empty().count(SystemConstants.SECKILL_ORDER_BATCH_SIZE),
+                        StreamOffset.create(RedisConstants.SECKILL_ORDER_STREAM, ReadOffset.from("0"))
+                );
+                // 2. pending-list已经处理完
+                if (CollUtil.isEmpty(records)) {
+                    return;
+                }
+                // 3. 逐个加用户锁写入数据库并ack，失败的留在pending-list中
+                boolean failed = false;
+                for (MapRecord<String, Object, Object> record : records) {
+                    if (!handlePendingRecordQuietly(record)) {
+                        failed = true;
+                    }
+                }
+                // 4. 有失败的，等一会儿再重试
+                if (failed) {
+                    Thread.sleep(SystemConstants.SECKILL_ORDER_RETRY_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("读取pending-list中的秒杀订单异常", e);
+                try {
+                    Thread.sleep(SystemConstants.SECKILL_ORDER_RETRY_MILLIS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 处理pending-list中的一个订单
+     *
+     * @return 是否已经处理完（写入成功或转入死信），false表示需要重试
+     */
+    private boolean handlePendingRecordQuietly(MapRecord<String, Object, Object> record) throws InterruptedException {
+        String recordId = record.getId().getValue();
+        try {
+            handlePendingRecord(record);
+            stringRedisTemplate.opsForHash().delete(RedisConstants.SECKILL_ORDER_ATTEMPTS_KEY, recordId);
+            return true;
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            retryCount.increment();
+            Long attempts = stringRedisTemplate.opsForHash()
+                    .increment(RedisConstants.SECKILL_ORDER_ATTEMPTS_KEY, recordId, 1);
+            if (attempts == null || attempts < SystemConstants.SECKILL_ORDER_MAX_ATTEMPTS) {
+                log.warn("处理秒杀订单失败，第{}次：{}", attempts, record.getValue(), e);
+                return false;
+            }
+            // 重试次数用完，转入死信：redis中已经扣了库存、记了下单用户，需要人工处理
+            log.error("秒杀订单失败{}次，转入死信：{}", attempts, record.getValue(), e);
+            Map<String, String> dead = new HashMap<>();
+            record.getValue().forEach((k, v) -> dead.put(k.toString(), v.toString()));
+            dead.put("error", String.valueOf(e.getMessage()));
+            stringRedisTemplate.opsForStream().add(RedisConstants.SECKILL_ORDER_DEAD_STREAM, dead);
+            stringRedisTemplate.opsForStream().acknowledge(
+                    RedisConstants.SECKILL_ORDER_STREAM, RedisConstants.SECKILL_ORDER_GROUP, record.getId());
+            stringRedisTemplate.opsForHash().delete(RedisConstants.SECKILL_ORDER_ATTEMPTS_KEY, recordId);
+            deadCount.increment();
+            return true;
+        }
+    }
+
+    private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+        long begin = System.nanoTime();
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            VoucherOrder order = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+            order.setCreateTime(LocalDateTime.now());
+            orders.add(order);
+        }
+        // 一个事务里写入整批订单、扣减数据库库存，提交后再ack
+        transactionTemplate.executeWithoutResult(status -> saveOrders(orders));
+        RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        stringRedisTemplate.opsForStream().acknowledge(
+                RedisConstants.SECKILL_ORDER_STREAM, RedisConstants.SECKILL_ORDER_GROUP, ids);
+        batchLatency.recordSince(begin);
+    }
+
+    /**
+     * pending-list中的订单可能已经部分写入，也可能被重复投递，
+     * 逐个加用户锁，按用户和优惠券再校验一次一人一单后写入
+     */
+    private void handlePendingRecord(MapRecord<String, Object, Object> record) throws InterruptedException {
+        VoucherOrder order = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+        order.setCreateTime(LocalDateTime.now());
+        ILock lock = lockFactory.getLock(RedisConstants.LOCK_ORDER_KEY + order.getUserId());
+        if (!lock.tryLock(SystemConstants.LOCK_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException("获取用户锁超时，userId: " + order.getUserId());
+        }
+        try {
+            Integer count = query().eq("user_id", order.getUserId()).eq("voucher_id", order.getVoucherId()).count();
+            if (count != null && count > 0) {
+                duplicateCount.increment();
+            } else {
+                transactionTemplate.executeWithoutResult(status -> saveOrders(Collections.singletonList(order)));
+            }
+            stringRedisTemplate.opsForStream().acknowledge(
+                    RedisConstants.SECKILL_ORDER_STREAM, RedisConstants.SECKILL_ORDER_GROUP, record.getId());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void saveOrders(List<VoucherOrder> orders) {
+        // 1. 过滤掉已经写入过的订单：写库成功但ack前宕机的订单会再次投递
+        List<Long> orderIds = orders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        Set<Long> existing = listByIds(orderIds).stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        List<VoucherOrder> newOrders = orders.stream()
+                .filter(o -> !existing.contains(o.getId()))
+                .collect(Collectors.toList());
+        duplicateCount.add(orders.size() - newOrders.size());
+        if (newOrders.isEmpty()) {
+            return;
+        }
+        // 2. 批量写入订单
+        saveBatch(newOrders);
+        // 3. 按优惠券分组扣减库存，每种优惠券只执行一条update
+        Map<Long, Long> counts = newOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        counts.forEach((voucherId, count) -> {
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", count)
+                    .update();
+            if (!success) {
+                // redis中已经校验过库存，走到这里说明redis和数据库的库存不一致；
+                // 抛出异常回滚整批订单，不在数据库中超卖，订单留在pending-list中逐个重试，最终进入死信
+                stockMismatchCount.increment();
+                throw new IllegalStateException("扣减数据库库存失败，voucherId: " + voucherId + ", count: " + count);
+            }
+        });
+        persistedCount.add(newOrders.size());
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (int i = 0; i < SECKILL_RESULTS.length; i++) {
+            stats.put(SECKILL_RESULTS[i], resultCounts[i].sum());
+        }
+        stats.put("persisted", persistedCount.sum());
+        stats.put("duplicate", duplicateCount.sum());
+        stats.put("retried", retryCount.sum());
+        stats.put("dead", deadCount.sum());
+        stats.put("claimed", claimedCount.sum());
+        stats.put("stockMismatch", stockMismatchCount.sum());
+        stats.put("seckill", seckillLatency.snapshot());
+        stats.put("batch", batchLatency.snapshot());
+        return stats;
+    }
 }
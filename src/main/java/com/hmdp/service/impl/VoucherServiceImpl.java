@@ -1,5 +1,7 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.TypeReference;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,16 +9,36 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.Metrics;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillWarmer;
+import com.hmdp.utils.SystemConstants;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 店铺的优惠券列表缓存在本地和redis两级，新增优惠券时失效；秒杀券的剩余库存从redis的库存计数覆盖，
+ * 秒杀期间查看优惠券列表不访问数据库。
  *
  * @author 虎哥
  * @since 2021-12-22
@@ -24,15 +46,114 @@ import java.util.List;
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
+    private static final Type VOUCHER_LIST = new TypeReference<List<Voucher>>() {
+    }.getType();
+
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Resource
+    private Metrics metrics;
+
+    @Resource
+    private SeckillWarmer seckillWarmer;
+
+    /**
+     * 店铺优惠券列表的本地缓存，只缓存不变的信息，秒杀库存每次从redis读取
+     */
+    private LocalCache<Long, List<Voucher>> voucherLocalCache;
+
+    @PostConstruct
+    public void init() {
+        voucherLocalCache = new LocalCache<>(
+                SystemConstants.LOCAL_VOUCHER_MAX_SIZE,
+                Long.MAX_VALUE,
+                SystemConstants.LOCAL_VOUCHER_TTL,
+                TimeUnit.SECONDS,
+                List::size
+        );
+        metrics.register("cache.voucher.local", voucherLocalCache::stats);
+        // 其他节点新增优惠券时，清除本节点的本地缓存
+        cacheInvalidator.subscribe(RedisConstants.CACHE_VOUCHER_SHOP_KEY,
+                shopId -> voucherLocalCache.invalidate(Long.valueOf(shopId)));
+    }
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
-        // 返回结果
-        return Result.ok(vouchers);
+        // 1. 先查本地缓存
+        List<Voucher> vouchers = voucherLocalCache.get(shopId);
+        if (vouchers == null) {
+            // 2. 查redis，未命中再查数据库
+            long stamp = cacheInvalidator.stamp();
+            vouchers = cacheClient.queryWithPassThrough(
+                    RedisConstants.CACHE_VOUCHER_SHOP_KEY,
+                    shopId,
+                    VOUCHER_LIST,
+                    getBaseMapper()::queryVoucherOfShop,
+                    RedisConstants.CACHE_VOUCHER_TTL,
+                    TimeUnit.MINUTES
+            );
+            if (vouchers == null) {
+                return Result.ok(Collections.emptyList());
+            }
+            // 查询期间新增过优惠券的不存，以免存入旧数据
+            if (!cacheInvalidator.isInvalidatedSince(RedisConstants.CACHE_VOUCHER_SHOP_KEY + shopId, stamp)) {
+                voucherLocalCache.put(shopId, vouchers);
+            }
+        }
+        // 3. 秒杀券的库存用redis中的实时库存覆盖，不查数据库
+        return Result.ok(withLiveStock(vouchers));
+    }
+
+    /**
+     * 一次MGET读出所有秒杀券的库存，返回副本，不修改缓存中的对象
+     */
+    private List<Voucher> withLiveStock(List<Voucher> vouchers) {
+        List<Voucher> seckills = vouchers.stream()
+                .filter(v -> Integer.valueOf(1).equals(v.getType()))
+                .collect(Collectors.toList());
+        if (seckills.isEmpty()) {
+            return vouchers;
+        }
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(seckills.stream()
+                .map(v -> RedisConstants.SECKILL_STOCK_KEY + v.getId())
+                .collect(Collectors.toList()));
+        Map<Long, Integer> stockMap = new HashMap<>();
+        for (int i = 0; stocks != null && i < seckills.size(); i++) {
+            if (stocks.get(i) != null) {
+                stockMap.put(seckills.get(i).getId(), Integer.valueOf(stocks.get(i)));
+            }
+        }
+        List<Voucher> result = new ArrayList<>(vouchers.size());
+        for (Voucher voucher : vouchers) {
+            Integer stock = stockMap.get(voucher.getId());
+            if (stock == null) {
+                result.add(voucher);
+            } else {
+                Voucher copy = BeanUtil.copyProperties(voucher, Voucher.class);
+                copy.setStock(stock);
+                result.add(copy);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    @Transactional
+    public void addVoucher(Voucher voucher) {
+        // 保存优惠券
+        save(voucher);
+        // 事务提交后删除店铺的优惠券缓存
+        invalidateAfterCommit(voucher.getShopId());
     }
 
     @Override
@@ -47,5 +168,30 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        // 事务提交后把库存和秒杀时间预热到redis，下单时只访问redis
+        seckillWarmer.warmAfterCommit(seckillVoucher);
+        // 事务提交后删除店铺的优惠券缓存
+        invalidateAfterCommit(voucher.getShopId());
+    }
+
+    /**
+     * 事务提交后删除redis缓存，并清除所有节点的本地缓存。提交前删除的话，其他请求可能又把旧数据读进缓存
+     */
+    private void invalidateAfterCommit(Long shopId) {
+        String key = RedisConstants.CACHE_VOUCHER_SHOP_KEY + shopId;
+        Runnable invalidate = () -> {
+            stringRedisTemplate.delete(key);
+            cacheInvalidator.invalidate(key);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate.run();
+                }
+            });
+        } else {
+            invalidate.run();
+        }
     }
 }
@@ -0,0 +1,205 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.RedisData;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 逻辑过期缓存的批量重建，由 CacheClient.batchRebuilder 创建，每种缓存一个。
+ * <p>
+ * 1. 过期的id先放进待重建集合，窗口内第一个id到达时开始计时，同一个窗口内过期的id合并成一批；<br>
+ * 2. 窗口结束后提交到缓存重建线程池，一批只占用一个线程；<br>
+ * 3. 一次pipeline用 SET NX EX 认领这批key，被其他节点认领的跳过，代替逐个加分布式锁；<br>
+ * 4. 认领到的id用一条 WHERE id IN (...) 查询数据库，再用一次pipeline写回redis，数据库中已经没有的删掉缓存。
+ * </p>
+ * 大量key同时过期时，重建的开销和窗口数成正比，和key的数量无关。
+ */
+@Slf4j
+public class BatchRebuilder<ID, R> {
+
+    private final String keyPrefix;
+    private final Function<List<ID>, Map<ID, R>> batchFallback;
+    private final Long time;
+    private final TimeUnit unit;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheRebuildExecutor cacheRebuildExecutor;
+    private final ScheduledExecutorService windowTimer;
+
+    /**
+     * 等待重建的id
+     */
+    private final Set<ID> pending = ConcurrentHashMap.newKeySet();
+    /**
+     * 当前窗口是否已经开始计时
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder rebuiltCount = new LongAdder();
+    private final LongAdder skippedCount = new LongAdder();
+    private final LongAdder deletedCount = new LongAdder();
+    private final LatencyRecorder batchLatency = new LatencyRecorder();
+
+    BatchRebuilder(String keyPrefix, Function<List<ID>, Map<ID, R>> batchFallback, Long time, TimeUnit unit,
+                   StringRedisTemplate stringRedisTemplate, CacheRebuildExecutor cacheRebuildExecutor,
+                   ScheduledExecutorService windowTimer) {
+        this.keyPrefix = keyPrefix;
+        this.batchFallback = batchFallback;
+        this.time = time;
+        this.unit = unit;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheRebuildExecutor = cacheRebuildExecutor;
+        this.windowTimer = windowTimer;
+    }
+
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    Long getTime() {
+        return time;
+    }
+
+    TimeUnit getUnit() {
+        return unit;
+    }
+
+    /**
+     * 按一个id查数据库，缓存未命中时由 CacheClient 加锁调用
+     */
+    R load(ID id) {
+        return batchFallback.apply(Collections.singletonList(id)).get(id);
+    }
+
+    /**
+     * 登记一个过期的id，等窗口结束后和同一窗口的其他id一起重建
+     */
+    public void submit(ID id) {
+        pending.add(id);
+        scheduleWindow();
+    }
+
+    private void scheduleWindow() {
+        if (scheduled.compareAndSet(false, true)) {
+            windowTimer.schedule(this::flush, SystemConstants.REBUILD_BATCH_WINDOW, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 窗口结束，提交到重建线程池；同一种缓存排队中的批次会合并，执行时再取出待重建的id
+     */
+    private void flush() {
+        scheduled.set(false);
+        if (!cacheRebuildExecutor.submit(keyPrefix, this::rebuildPending)) {
+            // 队列满了，放弃这一批，下次查询时还是过期的会再登记
+            pending.clear();
+        }
+    }
+
+    private void rebuildPending() {
+        try {
+            List<ID> batch;
+            while (!(batch = drain()).isEmpty()) {
+                rebuild(batch);
+            }
+        } finally {
+            // 执行期间合并进来的提交不会再触发执行，剩下的id开始新的窗口
+            if (!pending.isEmpty()) {
+                scheduleWindow();
+            }
+        }
+    }
+
+    private List<ID> drain() {
+        List<ID> batch = new ArrayList<>();
+        Iterator<ID> it = pending.iterator();
+        while (it.hasNext() && batch.size() < SystemConstants.REBUILD_BATCH_SIZE) {
+            batch.add(it.next());
+            it.remove();
+        }
+        return batch;
+    }
+
+    private void rebuild(List<ID> ids) {
+        long begin = System.nanoTime();
+        try {
+            // 1. 一次pipeline认领这批key，其他节点正在重建的跳过
+            List<Object> claims = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                byte[] owner = "1".getBytes(StandardCharsets.UTF_8);
+                for (ID id : ids) {
+                    connection.set(
+                            (RedisConstants.CACHE_REBUILD_KEY + keyPrefix + id).getBytes(StandardCharsets.UTF_8),
+                            owner,
+                            Expiration.seconds(SystemConstants.REBUILD_CLAIM_TTL),
+                            RedisStringCommands.SetOption.SET_IF_ABSENT);
+                }
+                return null;
+            });
+            List<ID> claimed = new ArrayList<>(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                if (Boolean.TRUE.equals(claims.get(i))) {
+                    claimed.add(ids.get(i));
+                }
+            }
+            skippedCount.add(ids.size() - claimed.size());
+            if (claimed.isEmpty()) {
+                return;
+            }
+            // 2. 一条IN查询读出这批数据
+            Map<ID, R> fresh = batchFallback.apply(claimed);
+            // 3. 一次pipeline写回，数据库中已经没有的删掉缓存
+            LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : claimed) {
+                    byte[] key = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                    R value = fresh.get(id);
+                    if (value == null) {
+                        connection.del(key);
+                    } else {
+                        connection.set(key, JSONUtil.toJsonStr(new RedisData<>(value, expireTime)).getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                return null;
+            });
+            batchCount.increment();
+            rebuiltCount.add(fresh.size());
+            deletedCount.add(claimed.size() - fresh.size());
+        } catch (Exception e) {
+            // 认领的key在到期后可以被重新认领，不需要释放
+            log.error("批量重建缓存失败，{}，共{}个key", keyPrefix, ids.size(), e);
+        } finally {
+            batchLatency.recordSince(begin);
+        }
+    }
+
+    Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pending", pending.size());
+        stats.put("batches", batchCount.sum());
+        stats.put("rebuilt", rebuiltCount.sum());
+        stats.put("skipped", skippedCount.sum());
+        stats.put("deleted", deletedCount.sum());
+        stats.put("batch", batchLatency.snapshot());
+        return stats;
+    }
+}
@@ -0,0 +1,24 @@
+package com.hmdp.utils;
+
+import com.hmdp.service.IBlogService;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * 启动时初始化热门博文的排行，redis中已经有了就跳过
+ */
+@Component
+public class BlogHotRankLoader implements ApplicationRunner {
+
+    private final IBlogService blogService;
+
+    public BlogHotRankLoader(IBlogService blogService) {
+        this.blogService = blogService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        blogService.loadHotRank();
+    }
+}
@@ -0,0 +1,200 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于进程内位图的布隆过滤器，用来拦截一定不存在的id，解决缓存穿透。
+ * <p>
+ * 判定不存在时一定不存在，判定存在时有一定的误判率。
+ * 启动加载完成前（ready = false）一律判定为可能存在，不拦截任何请求。
+ * 可选地把每次写入同步到redis的位图中，供其他服务使用；开启时本地判定不存在的id再查一次redis位图，
+ * 其他节点新增的id即使没有通知到本节点也不会被误拦，查到后补进本地位图。
+ * </p>
+ */
+public class BloomFilter {
+
+    private final String name;
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int hashCount;
+    /**
+     * redis位图镜像，为null时不同步
+     */
+    private final StringRedisTemplate redisMirror;
+    private final String mirrorKey;
+    private volatile boolean ready;
+
+    private final LongAdder insertCount = new LongAdder();
+    private final LongAdder rejectCount = new LongAdder();
+    private final LongAdder repairCount = new LongAdder();
+
+    /**
+     * @param name               名称，也用于redis位图的key
+     * @param expectedInsertions 预计插入的数量
+     * @param fpp                期望的误判率
+     * @param redisMirror        不为null时，写入同步到redis位图
+     */
+    public BloomFilter(String name, long expectedInsertions, double fpp, StringRedisTemplate redisMirror) {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("布隆过滤器参数错误：" + expectedInsertions + ", " + fpp);
+        }
+        // m = -n * ln(p) / (ln2)^2，k = m / n * ln2
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bitSize = Math.max(64, (m + 63) / 64 * 64);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+        this.bits = new AtomicLongArray((int) (bitSize / 64));
+        this.name = name;
+        this.redisMirror = redisMirror;
+        this.mirrorKey = RedisConstants.BLOOM_FILTER_KEY + name;
+    }
+
+    public void put(long id) {
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ id) | 1;
+        long[] offsets = redisMirror == null ? null : new long[hashCount];
+        for (int i = 0; i < hashCount; i++) {
+            long index = Math.floorMod(h1 + i * h2, bitSize);
+            setBit(index);
+            if (offsets != null) {
+                offsets[i] = index;
+            }
+        }
+        insertCount.increment();
+        if (offsets != null) {
+            byte[] key = mirrorKey.getBytes(StandardCharsets.UTF_8);
+            redisMirror.executePipelined((RedisCallback<Object>) connection -> {
+                for (long offset : offsets) {
+                    connection.setBit(key, offset, true);
+                }
+                return null;
+            });
+        }
+    }
+
+    public boolean mightContain(long id) {
+        if (!ready) {
+            return true;
+        }
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ id) | 1;
+        long[] offsets = new long[hashCount];
+        boolean contains = true;
+        for (int i = 0; i < hashCount; i++) {
+            long index = Math.floorMod(h1 + i * h2, bitSize);
+            offsets[i] = index;
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                contains = false;
+            }
+        }
+        if (contains) {
+            return true;
+        }
+        // 本地判定不存在，可能是漏掉了其他节点新增的通知，再查redis位图
+        if (mirrorContains(offsets)) {
+            for (long offset : offsets) {
+                setBit(offset);
+            }
+            repairCount.increment();
+            return true;
+        }
+        rejectCount.increment();
+        return false;
+    }
+
+    /**
+     * 一次pipeline读出redis位图中的所有位，没有开启镜像或redis不可用时返回false
+     */
+    private boolean mirrorContains(long[] offsets) {
+        if (redisMirror == null) {
+            return false;
+        }
+        byte[] key = mirrorKey.getBytes(StandardCharsets.UTF_8);
+        try {
+            List<Object> results = redisMirror.executePipelined((RedisCallback<Object>) connection -> {
+                for (long offset : offsets) {
+                    connection.getBit(key, offset);
+                }
+                return null;
+            });
+            for (Object result : results) {
+                if (!Boolean.TRUE.equals(result)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 加载完成，开始拦截。如果开启了redis镜像，把整个位图写入redis
+     */
+    public void markReady() {
+        if (redisMirror != null) {
+            byte[] bytes = toRedisBitmap();
+            redisMirror.execute((RedisCallback<Object>) connection -> {
+                connection.set(mirrorKey.getBytes(StandardCharsets.UTF_8), bytes);
+                return null;
+            });
+        }
+        this.ready = true;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("bitSize", bitSize);
+        stats.put("hashCount", hashCount);
+        stats.put("insertions", insertCount.sum());
+        stats.put("rejected", rejectCount.sum());
+        stats.put("repaired", repairCount.sum());
+        return stats;
+    }
+
+    private void setBit(long index) {
+        int word = (int) (index >>> 6);
+        long mask = 1L << index;
+        long old;
+        do {
+            old = bits.get(word);
+            if ((old & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(word, old, old | mask));
+    }
+
+    /**
+     * redis位图中offset 0是第一个字节的最高位
+     */
+    private byte[] toRedisBitmap() {
+        byte[] bytes = new byte[(int) (bitSize / 8)];
+        for (long index = 0; index < bitSize; index++) {
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) != 0) {
+                bytes[(int) (index >>> 3)] |= (byte) (0x80 >>> (index & 7));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * splitmix64的混淆函数，让连续的id也能均匀分布
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,97 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IUserService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 启动时把tb_shop、tb_user中已有的id加载进布隆过滤器。
+ * 之后定时加载比已加载的最大id更大的id，其他节点新增的通知丢失时，最多漏掉一个周期
+ */
+@Slf4j
+@Component
+public class BloomFilterLoader implements ApplicationRunner {
+
+    private static final int BATCH_SIZE = 10000;
+
+    private final IShopService shopService;
+    private final IUserService userService;
+    private final BloomFilter shopBloomFilter;
+    private final BloomFilter userBloomFilter;
+    /**
+     * 已加载的最大id，只在启动加载和定时任务中修改
+     */
+    private volatile long shopLastId;
+    private volatile long userLastId;
+    private volatile boolean loaded;
+
+    public BloomFilterLoader(IShopService shopService,
+                             IUserService userService,
+                             @Qualifier("shopBloomFilter") BloomFilter shopBloomFilter,
+                             @Qualifier("userBloomFilter") BloomFilter userBloomFilter) {
+        this.shopService = shopService;
+        this.userService = userService;
+        this.shopBloomFilter = shopBloomFilter;
+        this.userBloomFilter = userBloomFilter;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        shopLastId = load(shopService, shopBloomFilter, 0);
+        userLastId = load(userService, userBloomFilter, 0);
+        loaded = true;
+    }
+
+    /**
+     * 定时补上新增的id
+     */
+    @Scheduled(fixedDelay = SystemConstants.BLOOM_RESYNC_INTERVAL)
+    public void resync() {
+        if (!loaded) {
+            return;
+        }
+        shopLastId = load(shopService, shopBloomFilter, shopLastId);
+        userLastId = load(userService, userBloomFilter, userLastId);
+    }
+
+    /**
+     * 按主键分批查询比lastId大的id，避免深分页
+     *
+     * @return 加载后的最大id
+     */
+    private <T> long load(IService<T> service, BloomFilter filter, long lastId) {
+        long begin = System.currentTimeMillis();
+        boolean initial = lastId == 0;
+        long total = 0;
+        while (true) {
+            List<Long> ids = service.listObjs(
+                    new QueryWrapper<T>().select("id").gt("id", lastId).orderByAsc("id").last("LIMIT " + BATCH_SIZE),
+                    o -> ((Number) o).longValue()
+            );
+            ids.forEach(filter::put);
+            total += ids.size();
+            if (!ids.isEmpty()) {
+                lastId = ids.get(ids.size() - 1);
+            }
+            if (ids.size() < BATCH_SIZE) {
+                break;
+            }
+        }
+        if (initial) {
+            filter.markReady();
+            log.info("布隆过滤器 {} 加载完成，共{}个id，耗时{}ms", filter.getName(), total, System.currentTimeMillis() - begin);
+        } else if (total > 0) {
+            log.debug("布隆过滤器 {} 补充了{}个新增的id", filter.getName(), total);
+        }
+        return lastId;
+    }
+}
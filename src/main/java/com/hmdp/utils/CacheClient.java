@@ -0,0 +1,342 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.RedisData;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 通用的redis缓存工具，封装了三种查询策略：
+ * <p>
+ * 1. queryWithPassThrough：缓存空值，解决缓存穿透；<br>
+ * 2. queryWithMutex：缓存空值 + 互斥锁重建，解决缓存穿透和缓存击穿；<br>
+ * 3. queryWithLogicalExpire：逻辑过期 + 异步重建，解决热点数据的缓存击穿；未命中时加锁从数据库加载一次，
+ * 预热只是避免启动后的第一波请求都去查数据库；
+ * 传入 BatchRebuilder 时，同一窗口内过期的key合并成一批重建。
+ * </p>
+ * 每种策略分别统计耗时。
+ */
+@Slf4j
+@Component
+public class CacheClient {
+
+    private static final String PASS_THROUGH = "passThrough";
+    private static final String MUTEX = "mutex";
+    private static final String LOGICAL_EXPIRE = "logicalExpire";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheRebuildExecutor cacheRebuildExecutor;
+    private final RedisLockFactory lockFactory;
+    private final Metrics metrics;
+    private final Map<String, LatencyRecorder> latencies = new ConcurrentHashMap<>();
+    /**
+     * 批量重建的窗口计时，只负责到时提交，重建在重建线程池中执行
+     */
+    private final ScheduledExecutorService windowTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-rebuild-window");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, CacheRebuildExecutor cacheRebuildExecutor,
+                       RedisLockFactory lockFactory, Metrics metrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheRebuildExecutor = cacheRebuildExecutor;
+        this.lockFactory = lockFactory;
+        this.metrics = metrics;
+        metrics.register("cache.client", this::stats);
+    }
+
+    /**
+     * 写入缓存，并设置ttl
+     */
+    public void set(String key, Object value, Long time, TimeUnit unit) {
+        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+    }
+
+    /**
+     * 写入缓存，不设置ttl，把逻辑过期时间和数据一起存进去
+     */
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        RedisData<Object> data = new RedisData<>(value, LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(data));
+    }
+
+    /**
+     * 批量写入逻辑过期的缓存，一次pipeline
+     *
+     * @param values key -> 数据
+     */
+    public void setWithLogicalExpireBatch(Map<String, ?> values, Long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> connection.set(
+                    key.getBytes(StandardCharsets.UTF_8),
+                    JSONUtil.toJsonStr(new RedisData<>(value, expireTime)).getBytes(StandardCharsets.UTF_8)
+            ));
+            return null;
+        });
+    }
+
+    public <R, ID> R queryWithPassThrough(
+            String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithPassThrough(keyPrefix + id, type, () -> dbFallback.apply(id), time, unit);
+    }
+
+    /**
+     * 缓存空值，解决缓存穿透
+     *
+     * @param key        缓存的key
+     * @param type       缓存数据的类型，泛型集合可以用 TypeReference.getType()
+     * @param dbFallback 缓存未命中时查数据库，返回null表示数据不存在
+     * @param time       缓存的ttl
+     * @param unit       ttl的单位
+     */
+    public <R> R queryWithPassThrough(String key, Type type, Supplier<R> dbFallback, Long time, TimeUnit unit) {
+        long begin = System.nanoTime();
+        try {
+            // 1. 从redis中查
+            String json = stringRedisTemplate.opsForValue().get(key);
+            // 2. 命中，并且不是空串，直接返回
+            if (StrUtil.isNotBlank(json)) {
+                return JSONUtil.toBean(json, type, false);
+            }
+            // 3. 命中的是空串，说明数据库中不存在
+            if (json != null) {
+                return null;
+            }
+            // 4. 未命中，查数据库并写入缓存
+            return loadAndCache(key, dbFallback, time, unit);
+        } finally {
+            latency(PASS_THROUGH).recordSince(begin);
+        }
+    }
+
+    public <R, ID> R queryWithMutex(
+            String keyPrefix, ID id, Type type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithMutex(keyPrefix + id, type, () -> dbFallback.apply(id), time, unit);
+    }
+
+    /**
+     * 缓存空值 + 互斥锁，解决缓存穿透和缓存击穿。只有拿到锁的请求会查数据库，
+     * 其他请求等锁释放的通知，再重新查缓存
+     */
+    public <R> R queryWithMutex(String key, Type type, Supplier<R> dbFallback, Long time, TimeUnit unit) {
+        long begin = System.nanoTime();
+        long deadline = begin + TimeUnit.MILLISECONDS.toNanos(SystemConstants.LOCK_WAIT_MILLIS);
+        ILock lock = lockFactory.getLock(key);
+        try {
+            while (true) {
+                // 1. 从redis中查
+                String json = stringRedisTemplate.opsForValue().get(key);
+                if (StrUtil.isNotBlank(json)) {
+                    return JSONUtil.toBean(json, type, false);
+                }
+                if (json != null) {
+                    return null;
+                }
+                // 2. 未命中，获取锁，只有拿到锁的请求才查数据库
+                if (lock.tryLock()) {
+                    try {
+                        // 2.1 拿到锁后再查一次缓存，可能别的请求刚刚重建完
+                        json = stringRedisTemplate.opsForValue().get(key);
+                        if (json != null) {
+                            return StrUtil.isNotBlank(json) ? JSONUtil.toBean(json, type, false) : null;
+                        }
+                        // 2.2 查数据库并写入缓存
+                        return loadAndCache(key, dbFallback, time, unit);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                // 3. 没拿到锁，等重建的请求释放锁后再查缓存
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    log.warn("等待缓存重建超时，key: {}", key);
+                    return null;
+                }
+                lockFactory.awaitRelease(key, remaining, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            latency(MUTEX).recordSince(begin);
+        }
+    }
+
+    /**
+     * 创建一种缓存的批量重建器，配合 queryWithLogicalExpire 使用
+     *
+     * @param keyPrefix     缓存key的前缀
+     * @param batchFallback 按一批id查数据库，返回 id -> 数据，不存在的id不放进结果
+     * @param time          逻辑过期时间
+     * @param unit          逻辑过期时间的单位
+     */
+    public <ID, R> BatchRebuilder<ID, R> batchRebuilder(
+            String keyPrefix, Function<List<ID>, Map<ID, R>> batchFallback, Long time, TimeUnit unit) {
+        BatchRebuilder<ID, R> rebuilder = new BatchRebuilder<>(
+                keyPrefix, batchFallback, time, unit, stringRedisTemplate, cacheRebuildExecutor, windowTimer);
+        metrics.register("cache.rebuild.batch." + keyPrefix, rebuilder::stats);
+        return rebuilder;
+    }
+
+    /**
+     * 逻辑过期，解决热点数据的缓存击穿。
+     * 过期了提交异步重建，先返回旧数据；缓存不存在（没有预热、被淘汰或更新时删除）时加锁从数据库加载一次
+     */
+    public <R, ID> R queryWithLogicalExpire(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        return queryWithLogicalExpire(key, type, () -> cacheRebuildExecutor.submit(key, () -> {
+            // 获取锁，保证多个节点之间也只有一个在重建，重建期间看门狗自动续期
+            ILock lock = lockFactory.getLock(key);
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                // 查数据库，写入redis；数据库中已经没有了就删掉缓存
+                R fresh = dbFallback.apply(id);
+                if (fresh == null) {
+                    stringRedisTemplate.delete(key);
+                    return;
+                }
+                setWithLogicalExpire(key, fresh, time, unit);
+            } finally {
+                lock.unlock();
+            }
+        }), () -> loadWithLogicalExpire(key, type, () -> dbFallback.apply(id), time, unit));
+    }
+
+    /**
+     * 逻辑过期，过期的key交给批量重建器，和同一窗口内过期的其他key一起重建
+     */
+    public <R, ID> R queryWithLogicalExpire(ID id, Class<R> type, BatchRebuilder<ID, R> rebuilder) {
+        String key = rebuilder.getKeyPrefix() + id;
+        return queryWithLogicalExpire(key, type, () -> rebuilder.submit(id),
+                () -> loadWithLogicalExpire(key, type, () -> rebuilder.load(id), rebuilder.getTime(), rebuilder.getUnit()));
+    }
+
+    private <R> R queryWithLogicalExpire(String key, Class<R> type, Runnable onExpired, Supplier<R> onMiss) {
+        long begin = System.nanoTime();
+        try {
+            // 1. 从redis中查
+            String json = stringRedisTemplate.opsForValue().get(key);
+            // 2. 未命中，加锁从数据库加载；命中的是空串，说明数据库中不存在
+            if (json == null) {
+                return onMiss.get();
+            }
+            if (json.isEmpty()) {
+                return null;
+            }
+            // 3. 命中，反序列化，判断是否过期
+            RedisData<?> data = JSONUtil.toBean(json, RedisData.class);
+            R r = JSONUtil.toBean((JSONObject) data.getData(), type);
+            if (data.getExpireTime().isAfter(LocalDateTime.now())) {
+                // 3.1 未过期，直接返回
+                return r;
+            }
+            // 4. 已过期，提交重建，同一个key只会有一个在重建
+            onExpired.run();
+            // 5. 不等重建完成，返回旧数据
+            return r;
+        } finally {
+            latency(LOGICAL_EXPIRE).recordSince(begin);
+        }
+    }
+
+    /**
+     * 逻辑过期的缓存未命中时，只有拿到锁的请求查数据库并写入缓存，其他请求等锁释放后再查缓存。
+     * 调用方已经用布隆过滤器挡住了不存在的id，误判的id在数据库中也没有，缓存空串，防止反复查数据库
+     */
+    private <R> R loadWithLogicalExpire(String key, Class<R> type, Supplier<R> dbFallback, Long time, TimeUnit unit) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SystemConstants.LOCK_WAIT_MILLIS);
+        ILock lock = lockFactory.getLock(key);
+        try {
+            while (true) {
+                // 1. 获取锁，拿到锁后再查一次缓存，可能别的请求刚刚加载完
+                if (lock.tryLock()) {
+                    try {
+                        String json = stringRedisTemplate.opsForValue().get(key);
+                        if (json != null) {
+                            return logicalValue(json, type);
+                        }
+                        // 2. 查数据库并写入缓存
+                        R r = dbFallback.get();
+                        if (r == null) {
+                            stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+                            return null;
+                        }
+                        setWithLogicalExpire(key, r, time, unit);
+                        return r;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                // 3. 没拿到锁，等加载的请求释放锁后再查缓存
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    log.warn("等待缓存加载超时，key: {}", key);
+                    return null;
+                }
+                lockFactory.awaitRelease(key, remaining, TimeUnit.NANOSECONDS);
+                String json = stringRedisTemplate.opsForValue().get(key);
+                if (json != null) {
+                    return logicalValue(json, type);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static <R> R logicalValue(String json, Class<R> type) {
+        if (json.isEmpty()) {
+            return null;
+        }
+        RedisData<?> data = JSONUtil.toBean(json, RedisData.class);
+        return JSONUtil.toBean((JSONObject) data.getData(), type);
+    }
+
+    private <R> R loadAndCache(String key, Supplier<R> dbFallback, Long time, TimeUnit unit) {
+        R r = dbFallback.get();
+        if (r == null) {
+            // 数据库中不存在，缓存空串，防止缓存穿透
+            stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return null;
+        }
+        set(key, r, time, unit);
+        return r;
+    }
+
+    private LatencyRecorder latency(String strategy) {
+        return latencies.computeIfAbsent(strategy, k -> new LatencyRecorder());
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        latencies.forEach((strategy, recorder) -> stats.put(strategy, recorder.snapshot()));
+        return stats;
+    }
+}
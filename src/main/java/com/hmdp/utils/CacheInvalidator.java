@@ -0,0 +1,240 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 跨节点的本地缓存失效通知。
+ * <p>
+ * 某个节点修改数据后调用 {@link #invalidate(String)}：先清掉本节点的本地缓存，
+ * 再把key攒成一批，通过redis的发布订阅发给所有节点，其他节点收到后清掉各自的本地缓存。
+ * 每条消息带发出节点的id和该节点上单调递增的版本戳，同一个节点重复到达的消息直接丢弃。
+ * 不同节点的版本戳来自各自的时钟，不能比较先后，收到其他节点的消息一律清除，清除本身是幂等的。
+ * </p>
+ */
+@Slf4j
+@Component
+public class CacheInvalidator implements MessageListener {
+
+    /**
+     * 失效记录的保留时间，超过本地缓存的最长ttl就没有意义了
+     */
+    private static final long TOMBSTONE_TTL = TimeUnit.SECONDS.toMillis(SystemConstants.LOCAL_SHOP_TYPE_TTL * 2);
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final String nodeId = UUID.randomUUID().toString(true);
+    /**
+     * 混合逻辑时钟：取本地时间和已见过的最大版本戳中较大的一个，保证单调递增
+     */
+    private final AtomicLong clock = new AtomicLong();
+    /**
+     * key前缀 -> 清除本地缓存的回调，回调参数是去掉前缀后的部分
+     */
+    private final Map<String, List<Consumer<String>>> handlers = new ConcurrentHashMap<>();
+    /**
+     * key -> 最近一次失效的记录
+     */
+    private final Map<String, Tombstone> tombstones = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-invalidator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder publishedCount = new LongAdder();
+    private final LongAdder receivedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+
+    public CacheInvalidator(StringRedisTemplate stringRedisTemplate,
+                            RedisMessageListenerContainer listenerContainer,
+                            Metrics metrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        metrics.register("cache.invalidator", this::stats);
+    }
+
+    @PostConstruct
+    public void start() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+        flushExecutor.scheduleWithFixedDelay(this::flushQuietly,
+                SystemConstants.INVALIDATE_BATCH_INTERVAL, SystemConstants.INVALIDATE_BATCH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        flushExecutor.shutdown();
+        flushQuietly();
+    }
+
+    /**
+     * 注册某一类key的本地缓存清除回调
+     *
+     * @param keyPrefix key前缀，例如 cache:shop:
+     * @param handler   参数是key去掉前缀后的部分
+     */
+    public void subscribe(String keyPrefix, Consumer<String> handler) {
+        handlers.computeIfAbsent(keyPrefix, k -> new CopyOnWriteArrayList<>()).add(handler);
+    }
+
+    /**
+     * 当前的版本戳。读redis之前取一次，读完后用 {@link #isInvalidatedSince(String, long)}
+     * 判断期间这个key有没有被失效过，避免把旧数据放进本地缓存
+     */
+    public long stamp() {
+        return clock.get();
+    }
+
+    public boolean isInvalidatedSince(String key, long stamp) {
+        Tombstone tombstone = tombstones.get(key);
+        return tombstone != null && tombstone.localStamp > stamp;
+    }
+
+    /**
+     * 清除本节点的本地缓存，并通知其他节点
+     */
+    public void invalidate(String key) {
+        long stamp = tick(0);
+        tombstones.put(key, new Tombstone(nodeId, stamp, stamp));
+        evictLocal(key);
+        pending.add(key);
+        if (pending.size() >= SystemConstants.INVALIDATE_BATCH_SIZE) {
+            flushExecutor.execute(this::flushQuietly);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        handleMessage(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 处理一条失效消息，和redis连接无关，便于单独测试
+     */
+    void handleMessage(String payload) {
+        JSONObject json = JSONUtil.parseObj(payload);
+        // 自己发出的消息，本地缓存已经清过了
+        if (nodeId.equals(json.getStr("node"))) {
+            return;
+        }
+        receivedCount.increment();
+        long remoteStamp = json.getLong("stamp");
+        long localStamp = tick(remoteStamp);
+        String origin = json.getStr("node");
+        for (String key : json.getJSONArray("keys").toList(String.class)) {
+            Tombstone previous = tombstones.get(key);
+            if (previous != null && origin.equals(previous.origin) && previous.remoteStamp >= remoteStamp) {
+                // 同一个节点的这条消息已经处理过了，重复到达
+                droppedCount.increment();
+                continue;
+            }
+            tombstones.put(key, new Tombstone(origin, remoteStamp, localStamp));
+            evictLocal(key);
+        }
+    }
+
+    /**
+     * 把攒下的key合并成一条消息发出去
+     */
+    void flush() {
+        long now = System.currentTimeMillis();
+        tombstones.entrySet().removeIf(e -> now - e.getValue().createTime > TOMBSTONE_TTL);
+        while (!pending.isEmpty()) {
+            Set<String> batch = new LinkedHashSet<>();
+            String key;
+            while (batch.size() < SystemConstants.INVALIDATE_BATCH_SIZE && (key = pending.poll()) != null) {
+                batch.add(key);
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            JSONObject json = JSONUtil.createObj()
+                    .set("node", nodeId)
+                    .set("stamp", tick(0))
+                    .set("keys", new ArrayList<>(batch));
+            stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, json.toString());
+            publishedCount.add(batch.size());
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("发送缓存失效消息失败", e);
+        }
+    }
+
+    private long tick(long seen) {
+        return clock.updateAndGet(prev -> Math.max(Math.max(prev + 1, seen), System.currentTimeMillis()));
+    }
+
+    private void evictLocal(String key) {
+        handlers.forEach((prefix, list) -> {
+            if (key.startsWith(prefix)) {
+                String suffix = key.substring(prefix.length());
+                list.forEach(handler -> handler.accept(suffix));
+            }
+        });
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("publishedKeys", publishedCount.sum());
+        stats.put("receivedMessages", receivedCount.sum());
+        stats.put("droppedKeys", droppedCount.sum());
+        stats.put("pendingKeys", pending.size());
+        return stats;
+    }
+
+    private static class Tombstone {
+        /**
+         * 发出失效消息的节点
+         */
+        final String origin;
+        /**
+         * 发出失效消息的节点上的版本戳，只和同一个节点的版本戳比较，用于去重
+         */
+        final long remoteStamp;
+        /**
+         * 本节点处理失效时的版本戳，用于判断读期间有没有失效
+         */
+        final long localStamp;
+        final long createTime = System.currentTimeMillis();
+
+        Tombstone(String origin, long remoteStamp, long localStamp) {
+            this.origin = origin;
+            this.remoteStamp = remoteStamp;
+            this.localStamp = localStamp;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建线程池。
+ * <p>
+ * 1. 等待队列有上限，满了直接拒绝，调用方继续返回旧数据；<br>
+ * 2. 同一个key在本JVM里同时只会有一个重建任务，重复提交会合并到已有的任务上；<br>
+ * 3. 合并的次数越多说明key越热，排队时优先执行；<br>
+ * 4. 作为Spring Bean，容器关闭时等待已提交的任务执行完。
+ * </p>
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor implements DisposableBean {
+
+    private final ThreadPoolExecutor executor;
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+    /**
+     * 队列剩余容量
+     */
+    private final Semaphore queuePermits = new Semaphore(SystemConstants.REBUILD_QUEUE_CAPACITY);
+    /**
+     * key -> 排队中或执行中的重建任务
+     */
+    private final Map<String, RebuildTask> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LatencyRecorder waitLatency = new LatencyRecorder();
+    private final LatencyRecorder rebuildLatency = new LatencyRecorder();
+
+    public CacheRebuildExecutor(Metrics metrics) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                SystemConstants.REBUILD_POOL_SIZE,
+                SystemConstants.REBUILD_POOL_SIZE,
+                0L, TimeUnit.MILLISECONDS,
+                queue,
+                r -> new Thread(r, "cache-rebuild-" + threadIndex.incrementAndGet())
+        );
+        // 线程都提前启动，后面直接往队列里放任务
+        executor.prestartAllCoreThreads();
+        metrics.register("cache.rebuild", this::stats);
+    }
+
+    /**
+     * 提交一个重建任务
+     *
+     * @param key     缓存的key，同一个key的任务会合并
+     * @param rebuild 重建逻辑
+     * @return 是否已有或新建了重建任务，false表示被拒绝
+     */
+    public boolean submit(String key, Runnable rebuild) {
+        RebuildTask created = new RebuildTask(key, rebuild, sequence.incrementAndGet());
+        RebuildTask task = inFlight.putIfAbsent(key, created);
+        if (task != null) {
+            // 已经有任务了，合并进去，并提高它的优先级
+            coalescedCount.increment();
+            task.hits.increment();
+            if (queue.remove(task)) {
+                task.priority = task.hits.sum();
+                queue.offer(task);
+            }
+            return true;
+        }
+        if (executor.isShutdown() || !queuePermits.tryAcquire()) {
+            inFlight.remove(key, created);
+            rejectedCount.increment();
+            log.debug("缓存重建队列已满，放弃重建 {}", key);
+            return false;
+        }
+        try {
+            executor.execute(created);
+        } catch (RejectedExecutionException e) {
+            // 容器正在关闭
+            queuePermits.release();
+            inFlight.remove(key, created);
+            rejectedCount.increment();
+            return false;
+        }
+        submittedCount.increment();
+        return true;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(SystemConstants.REBUILD_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+            log.warn("缓存重建任务未能在{}秒内执行完，剩余{}个", SystemConstants.REBUILD_SHUTDOWN_TIMEOUT, queue.size());
+            executor.shutdownNow();
+        }
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queue.size());
+        stats.put("active", executor.getActiveCount());
+        stats.put("submitted", submittedCount.sum());
+        stats.put("coalesced", coalescedCount.sum());
+        stats.put("rejected", rejectedCount.sum());
+        stats.put("failed", failedCount.sum());
+        stats.put("queueWait", waitLatency.snapshot());
+        stats.put("rebuild", rebuildLatency.snapshot());
+        return stats;
+    }
+
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        final String key;
+        final Runnable rebuild;
+        final long seq;
+        final long createNanos = System.nanoTime();
+        final LongAdder hits = new LongAdder();
+        /**
+         * 在队列中时不能修改，要先移出队列
+         */
+        volatile long priority;
+
+        RebuildTask(String key, Runnable rebuild, long seq) {
+            this.key = key;
+            this.rebuild = rebuild;
+            this.seq = seq;
+            this.hits.increment();
+            this.priority = 1;
+        }
+
+        @Override
+        public void run() {
+            queuePermits.release();
+            waitLatency.recordSince(createNanos);
+            long begin = System.nanoTime();
+            try {
+                rebuild.run();
+            } catch (Exception e) {
+                failedCount.increment();
+                log.error("缓存重建失败，key: {}", key, e);
+            } finally {
+                rebuildLatency.recordSince(begin);
+                inFlight.remove(key, this);
+            }
+        }
+
+        @Override
+        public int compareTo(RebuildTask other) {
+            // 优先级高的先执行，相同的按提交顺序
+            int c = Long.compare(other.priority, priority);
+            return c != 0 ? c : Long.compare(seq, other.seq);
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.collection.CollUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.entity.UserInfo;
+import com.hmdp.service.IFollowService;
+import com.hmdp.service.IUserInfoService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.DefaultTuple;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 把新博文异步推送到粉丝的收件箱。
+ * <p>
+ * 1. 发博文的请求只写作者的发件箱，再往redis的stream中放一个推送任务，不等推送完成；<br>
+ * 2. 若干个工作线程从stream中一次取一个任务，按主键分批查粉丝，每批一次pipeline写入收件箱，
+ * 工作线程按自己的速度拉取任务，积压的任务留在stream中；<br>
+ * 3. 每批写入时把进度（最后一个粉丝关注记录的id）一起写进redis，失败重试时从进度处继续；<br>
+ * 4. 重试超过次数的任务转入死信stream并ack，不阻塞后面的任务；<br>
+ * 5. 任务完成或转入死信后从stream中删除，stream的长度就是积压的任务数；<br>
+ * 6. 事务提交后提交任务失败时只记日志，由定时任务按博文id检查新博文是否进了作者的发件箱，没有的重新提交；<br>
+ * 7. 每个工作线程是一个独立的消费者，定时认领其他消费者空闲太久的任务，宕机节点推送了一半的任务从进度处继续。
+ * </p>
+ * 粉丝数超过阈值的作者记为大V，不推送，由粉丝读取时从发件箱拉取；粉丝数读用户详情中增量维护的计数，不统计关注表。
+ * 大V的粉丝数降到阈值以下后，下一次推送把发件箱中的博文连同新博文一起补推到粉丝的收件箱，
+ * 补推完成后才移出大V，期间粉丝仍然从发件箱拉取，不会漏掉当大V期间发的博文。
+ */
+@Slf4j
+@Component
+public class FeedFanoutWorker {
+
+    private static final String ATTEMPTS_SUFFIX = ":attempts";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final IFollowService followService;
+    private final IUserInfoService userInfoService;
+    private final BlogMapper blogMapper;
+    private final RedisLockFactory lockFactory;
+
+    private final ExecutorService workers;
+    private volatile boolean running = true;
+
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder completedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder deadCount = new LongAdder();
+    private final LongAdder pushedCount = new LongAdder();
+    private final LongAdder submitFailedCount = new LongAdder();
+    private final LongAdder recoveredCount = new LongAdder();
+    private final LongAdder claimedCount = new LongAdder();
+    private final AtomicInteger activeJobs = new AtomicInteger();
+    /**
+     * 从发博文到推送完成的耗时
+     */
+    private final LatencyRecorder jobLatency = new LatencyRecorder();
+
+    public FeedFanoutWorker(StringRedisTemplate stringRedisTemplate, IFollowService followService,
+                            IUserInfoService userInfoService, BlogMapper blogMapper, RedisLockFactory lockFactory,
+                            Metrics metrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.followService = followService;
+        this.userInfoService = userInfoService;
+        this.blogMapper = blogMapper;
+        this.lockFactory = lockFactory;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(SystemConstants.FEED_FANOUT_WORKERS,
+                r -> new Thread(r, "feed-fanout-" + threadIndex.incrementAndGet()));
+        metrics.register("feed.fanout", this::stats);
+    }
+
+    @PostConstruct
+    public void start() {
+        RedisStreams.createGroupIfAbsent(stringRedisTemplate,
+                RedisConstants.FEED_FANOUT_STREAM, RedisConstants.FEED_FANOUT_GROUP);
+        // 每个工作线程一个消费者，名称在进程内唯一
+        String prefix = RedisStreams.consumerName();
+        for (int i = 0; i < SystemConstants.FEED_FANOUT_WORKERS; i++) {
+            String consumerName = prefix + "-" + i;
+            workers.submit(() -> consume(consumerName));
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        workers.shutdown();
+        // 没有完成的任务留在pending-list中，下次启动从进度处继续
+        workers.awaitTermination(SystemConstants.FEED_FANOUT_BLOCK_MILLIS * 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 发布一篇新博文：写入作者的发件箱，并提交推送任务。在事务中调用时，事务提交后才执行。
+     * 博文已经保存成功，提交失败不抛给调用方，由 {@link #recover()} 补上
+     */
+    public void submit(Long authorId, Long blogId, long time) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submitQuietly(authorId, blogId, time);
+                }
+            });
+        } else {
+            submitQuietly(authorId, blogId, time);
+        }
+    }
+
+    private void submitQuietly(Long authorId, Long blogId, long time) {
+        try {
+            doSubmit(authorId, blogId, time);
+        } catch (Exception e) {
+            submitFailedCount.increment();
+            log.error("提交推送任务失败，等待定时补偿，blogId: {}", blogId, e);
+        }
+    }
+
+    private void doSubmit(Long authorId, Long blogId, long time) {
+        // 1. 提交推送任务 XADD stream.feed * authorId .. blogId .. time ..
+        Map<String, String> job = new HashMap<>();
+        job.put("authorId", authorId.toString());
+        job.put("blogId", blogId.toString());
+        job.put("time", String.valueOf(time));
+        stringRedisTemplate.opsForStream().add(RedisConstants.FEED_FANOUT_STREAM, job);
+        // 2. 最后写入发件箱，只保留最近的；发件箱中有这篇博文就说明任务已经提交过
+        String outbox = RedisConstants.FEED_OUTBOX_KEY + authorId;
+        stringRedisTemplate.opsForZSet().add(outbox, blogId.toString(), time);
+        stringRedisTemplate.opsForZSet().removeRange(outbox, 0, -SystemConstants.FEED_OUTBOX_MAX_SIZE - 1);
+        submittedCount.increment();
+    }
+
+    /**
+     * 定时检查上次检查之后的新博文，不在作者发件箱中的说明提交失败了，重新提交。
+     * 只检查发布超过一段时间的，给正在提交的留出时间
+     */
+    @Scheduled(fixedDelay = SystemConstants.FEED_RECOVER_INTERVAL)
+    public void recover() {
+        // 多个节点只需要一个检查
+        ILock lock = lockFactory.getLock(RedisConstants.FEED_RECOVER_CURSOR_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            // 1. 上次检查到的博文id，第一次运行时从当前最大的id开始
+            String cursor = stringRedisTemplate.opsForValue().get(RedisConstants.FEED_RECOVER_CURSOR_KEY);
+            long lastId;
+            if (cursor == null) {
+                List<Object> max = blogMapper.selectObjs(new QueryWrapper<Blog>().select("MAX(id)"));
+                lastId = max.isEmpty() || max.get(0) == null ? 0 : ((Number) max.get(0)).longValue();
+                stringRedisTemplate.opsForValue().set(RedisConstants.FEED_RECOVER_CURSOR_KEY, String.valueOf(lastId));
+                return;
+            }
+            lastId = Long.parseLong(cursor);
+            LocalDateTime before = LocalDateTime.now().minusSeconds(SystemConstants.FEED_RECOVER_GRACE_SECONDS);
+            while (true) {
+                // 2. 按主键分批查询新博文
+                List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                        .select("id", "user_id", "create_time")
+                        .gt("id", lastId)
+                        .le("create_time", before)
+                        .orderByAsc("id")
+                        .last("LIMIT " + SystemConstants.FEED_FANOUT_CHUNK_SIZE));
+                if (blogs.isEmpty()) {
+                    return;
+                }
+                // 3. 一次pipeline查这一批博文在不在作者的发件箱中
+                List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (Blog blog : blogs) {
+                        connection.zScore((RedisConstants.FEED_OUTBOX_KEY + blog.getUserId()).getBytes(StandardCharsets.UTF_8),
+                                blog.getId().toString().getBytes(StandardCharsets.UTF_8));
+                    }
+                    return null;
+                });
+                // 4. 不在的重新提交
+                for (int i = 0; i < blogs.size(); i++) {
+                    if (scores.get(i) == null) {
+                        Blog blog = blogs.get(i);
+                        long time = blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                        doSubmit(blog.getUserId(), blog.getId(), time);
+                        recoveredCount.increment();
+                        log.warn("重新提交推送任务，blogId: {}", blog.getId());
+                    }
+                }
+                lastId = blogs.get(blogs.size() - 1).getId();
+                stringRedisTemplate.opsForValue().set(RedisConstants.FEED_RECOVER_CURSOR_KEY, String.valueOf(lastId));
+                if (blogs.size() < SystemConstants.FEED_FANOUT_CHUNK_SIZE) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            log.error("检查推送任务失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void consume(String consumerName) {
+        // 先处理上次没有完成的任务
+        handlePendingList(consumerName);
+        long lastClaimTime = 0;
+        while (running) {
+            try {
+                // 0. 定时认领宕机节点遗留的任务
+                if (System.currentTimeMillis() - lastClaimTime >= SystemConstants.STREAM_CLAIM_INTERVAL) {
+                    lastClaimTime = System.currentTimeMillis();
+                    claimIdleJobs(consumerName);
+                }
+                // 1. 一次取一个新任务，任务本身就是分批执行的
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(RedisConstants.FEED_FANOUT_GROUP, consumerName),
+                        StreamReadOptions.empty().count(1)
+                                .block(Duration.ofMillis(SystemConstants.FEED_FANOUT_BLOCK_MILLIS)),
+                        StreamOffset.create(RedisConstants.FEED_FANOUT_STREAM, ReadOffset.lastConsumed())
+                );
+                if (CollUtil.isEmpty(records)) {
+                    continue;
+                }
+                // 2. 执行推送，失败的任务留在pending-list中
+                if (!handleRecord(records.get(0))) {
+                    handlePendingList(consumerName);
+                }
+            } catch (Exception e) {
+                log.error("读取推送任务异常", e);
+                handlePendingList(consumerName);
+            }
+        }
+    }
+
+    /**
+     * 认领其他消费者超过一段时间没有ack的任务，按pending-list的流程从进度处继续推送
+     */
+    private void claimIdleJobs(String consumerName) {
+        int claimed = RedisStreams.claimIdle(stringRedisTemplate,
+                RedisConstants.FEED_FANOUT_STREAM, RedisConstants.FEED_FANOUT_GROUP, consumerName,
+                Duration.ofMillis(SystemConstants.STREAM_CLAIM_MIN_IDLE_MILLIS));
+        if (claimed > 0) {
+            claimedCount.add(claimed);
+            log.warn("认领了其他消费者遗留的{}个推送任务", claimed);
+            handlePendingList(consumerName);
+        }
+        RedisStreams.deleteIdleConsumers(stringRedisTemplate,
+                RedisConstants.FEED_FANOUT_STREAM, RedisConstants.FEED_FANOUT_GROUP,
+                Duration.ofMillis(SystemConstants.STREAM_CONSUMER_EXPIRE_MILLIS));
+    }
+
+    private void handlePendingList(String consumerName) {
+        while (running) {
+            try {
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(RedisConstants.FEED_FANOUT_GROUP, consumerName),
+                        StreamReadOptions.empty().count(1),
+                        StreamOffset.create(RedisConstants.FEED_FANOUT_STREAM, ReadOffset.from("0"))
+                );
+                if (CollUtil.isEmpty(records)) {
+                    return;
+                }
+                if (!handleRecord(records.get(0))) {
+                    // 失败了等一会儿再重试
+                    Thread.sleep(1000);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("读取pending-list中的推送任务异常", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 执行一个推送任务
+     *
+     * @return 是否已经处理完（成功或转入死信），false表示需要重试
+     */
+    private boolean handleRecord(MapRecord<String, Object, Object> record) {
+        String jobId = record.getId().getValue();
+        Map<Object, Object> job = record.getValue();
+        activeJobs.incrementAndGet();
+        try {
+            fanout(jobId,
+                    Long.valueOf(job.get("authorId").toString()),
+                    job.get("blogId").toString(),
+                    Long.parseLong(job.get("time").toString()));
+            finish(record);
+            completedCount.increment();
+            jobLatency.record(TimeUnit.MILLISECONDS.toNanos(
+                    Math.max(0, System.currentTimeMillis() - Long.parseLong(job.get("time").toString()))));
+            return true;
+        } catch (Exception e) {
+            failedCount.increment();
+            Long attempts = stringRedisTemplate.opsForHash()
+                    .increment(RedisConstants.FEED_FANOUT_PROGRESS_KEY, jobId + ATTEMPTS_SUFFIX, 1);
+            if (attempts != null && attempts >= SystemConstants.FEED_FANOUT_MAX_ATTEMPTS) {
+                // 重试次数用完，转入死信
+                log.error("推送任务失败{}次，转入死信：{}", attempts, job, e);
+                Map<String, String> dead = new HashMap<>();
+                job.forEach((k, v) -> dead.put(k.toString(), v.toString()));
+                dead.put("error", String.valueOf(e.getMessage()));
+                stringRedisTemplate.opsForStream().add(RedisConstants.FEED_FANOUT_DEAD_STREAM, dead);
+                finish(record);
+                deadCount.increment();
+                return true;
+            }
+            log.warn("推送任务失败，第{}次：{}", attempts, job, e);
+            return false;
+        } finally {
+            activeJobs.decrementAndGet();
+        }
+    }
+
+    private void fanout(String jobId, Long authorId, String blogId, long time) {
+        // 1. 粉丝太多，只记为大V，不推送；粉丝数用用户详情中的计数，走缓存，不统计关注表
+        UserInfo info = userInfoService.queryById(authorId);
+        Integer fans = info == null ? null : info.getFans();
+        if (fans != null && fans > SystemConstants.FEED_PUSH_THRESHOLD) {
+            stringRedisTemplate.opsForSet().add(RedisConstants.FEED_CELEBRITY_KEY, authorId.toString());
+            return;
+        }
+        // 2. 之前是大V的，发件箱中的博文没有推送过，要一起补推
+        Set<RedisZSetCommands.Tuple> entries = new LinkedHashSet<>();
+        entries.add(new DefaultTuple(blogId.getBytes(StandardCharsets.UTF_8), (double) time));
+        boolean demoted = Boolean.TRUE.equals(
+                stringRedisTemplate.opsForSet().isMember(RedisConstants.FEED_CELEBRITY_KEY, authorId.toString()));
+        if (demoted) {
+            Set<ZSetOperations.TypedTuple<String>> outbox = stringRedisTemplate.opsForZSet().reverseRangeWithScores(
+                    RedisConstants.FEED_OUTBOX_KEY + authorId, 0, SystemConstants.FEED_INBOX_MAX_SIZE - 1);
+            if (outbox != null) {
+                for (ZSetOperations.TypedTuple<String> tuple : outbox) {
+                    if (tuple.getValue() != null && tuple.getScore() != null) {
+                        entries.add(new DefaultTuple(tuple.getValue().getBytes(StandardCharsets.UTF_8), tuple.getScore()));
+                    }
+                }
+            }
+        }
+        pushToFollowers(jobId, authorId, entries);
+        // 3. 补推完成后才移出大V
+        if (demoted) {
+            stringRedisTemplate.opsForSet().remove(RedisConstants.FEED_CELEBRITY_KEY, authorId.toString());
+            log.info("作者{}的粉丝数降到阈值以下，补推了{}篇博文", authorId, entries.size());
+        }
+    }
+
+    /**
+     * 把博文写入作者所有粉丝的收件箱，从上次的进度继续
+     */
+    private void pushToFollowers(String jobId, Long authorId, Set<RedisZSetCommands.Tuple> entries) {
+        Object progress = stringRedisTemplate.opsForHash().get(RedisConstants.FEED_FANOUT_PROGRESS_KEY, jobId);
+        long lastId = progress == null ? 0 : Long.parseLong(progress.toString());
+        byte[] progressKey = RedisConstants.FEED_FANOUT_PROGRESS_KEY.getBytes(StandardCharsets.UTF_8);
+        byte[] progressField = jobId.getBytes(StandardCharsets.UTF_8);
+        while (true) {
+            // 1. 按主键分批查粉丝
+            List<Follow> follows = followService.query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", authorId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + SystemConstants.FEED_FANOUT_CHUNK_SIZE)
+                    .list();
+            if (follows.isEmpty()) {
+                return;
+            }
+            // 2. 一次pipeline写入这一批收件箱，并记录进度
+            long chunkLastId = follows.get(follows.size() - 1).getId();
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Follow follow : follows) {
+                    byte[] inbox = (RedisConstants.FEED_KEY + follow.getUserId()).getBytes(StandardCharsets.UTF_8);
+                    connection.zAdd(inbox, entries);
+                    connection.zRemRange(inbox, 0, -SystemConstants.FEED_INBOX_MAX_SIZE - 1);
+                }
+                connection.hSet(progressKey, progressField, String.valueOf(chunkLastId).getBytes(StandardCharsets.UTF_8));
+                return null;
+            });
+            pushedCount.add(follows.size());
+            if (follows.size() < SystemConstants.FEED_FANOUT_CHUNK_SIZE) {
+                return;
+            }
+            lastId = chunkLastId;
+        }
+    }
+
+    /**
+     * ack并删除任务，stream中只剩下没有读取和没有完成的任务
+     */
+    private void finish(MapRecord<String, Object, Object> record) {
+        String jobId = record.getId().getValue();
+        stringRedisTemplate.opsForStream().acknowledge(
+                RedisConstants.FEED_FANOUT_STREAM, RedisConstants.FEED_FANOUT_GROUP, record.getId());
+        stringRedisTemplate.opsForStream().delete(RedisConstants.FEED_FANOUT_STREAM, record.getId());
+        stringRedisTemplate.opsForHash().delete(RedisConstants.FEED_FANOUT_PROGRESS_KEY, jobId, jobId + ATTEMPTS_SUFFIX);
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("submitted", submittedCount.sum());
+        stats.put("completed", completedCount.sum());
+        stats.put("failed", failedCount.sum());
+        stats.put("dead", deadCount.sum());
+        stats.put("pushedInboxes", pushedCount.sum());
+        stats.put("activeJobs", activeJobs.get());
+        stats.put("submitFailed", submitFailedCount.sum());
+        stats.put("recovered", recoveredCount.sum());
+        stats.put("claimed", claimedCount.sum());
+        // 完成的任务已经删除，stream的长度 = 还没有读取的 + 已读取没有完成的
+        stats.put("backlog", stringRedisTemplate.opsForStream().size(RedisConstants.FEED_FANOUT_STREAM));
+        PendingMessagesSummary pending = stringRedisTemplate.opsForStream()
+                .pending(RedisConstants.FEED_FANOUT_STREAM, RedisConstants.FEED_FANOUT_GROUP);
+        stats.put("pending", pending == null ? 0 : pending.getTotalPendingMessages());
+        stats.put("job", jobLatency.snapshot());
+        return stats;
+    }
+}
@@ -0,0 +1,28 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式锁。可重入，持有期间自动续期，只有持有者才能释放
+ */
+public interface ILock {
+
+    /**
+     * 尝试获取锁，不等待
+     *
+     * @return 是否获取成功
+     */
+    boolean tryLock();
+
+    /**
+     * 尝试获取锁，锁被别人持有时最多等待waitTime
+     *
+     * @return 是否获取成功
+     */
+    boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * 释放锁，重入了几次就要释放几次
+     */
+    void unlock();
+}
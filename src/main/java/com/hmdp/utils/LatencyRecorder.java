@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时统计。按微秒数的2的幂分桶记录，输出次数、平均值、最大值和近似的p50/p90/p99（毫秒）。
+ */
+public class LatencyRecorder {
+
+    private static final int BUCKET_COUNT = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public void record(long nanos) {
+        long micros = Math.max(1, nanos / 1000);
+        int bucket = Math.min(BUCKET_COUNT - 1, 63 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * 记录从startNanos（System.nanoTime()）到现在的耗时
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public Map<String, Object> snapshot() {
+        long n = count.sum();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("count", n);
+        snapshot.put("meanMs", n == 0 ? 0D : totalNanos.sum() / 1e6 / n);
+        snapshot.put("maxMs", maxNanos.get() / 1e6);
+        snapshot.put("p50Ms", percentile(n, 0.50));
+        snapshot.put("p90Ms", percentile(n, 0.90));
+        snapshot.put("p99Ms", percentile(n, 0.99));
+        return snapshot;
+    }
+
+    /**
+     * 返回所在桶的上界，是一个偏大的近似值
+     */
+    private double percentile(long n, double p) {
+        if (n == 0) {
+            return 0D;
+        }
+        long rank = (long) Math.ceil(n * p);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return (1L << (i + 1)) / 1000D;
+            }
+        }
+        return maxNanos.get() / 1e6;
+    }
+}
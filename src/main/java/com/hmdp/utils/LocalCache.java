@@ -0,0 +1,201 @@
+package com.hmdp.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+
+/**
+ * 进程内的本地缓存（L1），放在redis缓存前面。
+ * <p>
+ * 按key的hash分成若干段，每段是一个按访问顺序排列的LinkedHashMap（LRU），
+ * 同时受条目数和权重（近似字节数）限制，写入超过ttl后失效。
+ * 记录命中、未命中、淘汰次数，用于监控。
+ * </p>
+ */
+public class LocalCache<K, V> {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment<K, V>[] segments;
+    private final long ttlMillis;
+    private final ToIntFunction<V> weigher;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * @param maxSize   最大条目数
+     * @param maxWeight 最大总权重
+     * @param ttl       写入后的存活时间
+     * @param unit      ttl的单位
+     * @param weigher   计算单个value的权重
+     */
+    @SuppressWarnings("unchecked")
+    public LocalCache(int maxSize, long maxWeight, long ttl, TimeUnit unit, ToIntFunction<V> weigher) {
+        this.ttlMillis = unit.toMillis(ttl);
+        this.weigher = weigher;
+        this.segments = new Segment[SEGMENT_COUNT];
+        int segmentSize = Math.max(1, maxSize / SEGMENT_COUNT);
+        long segmentWeight = Math.max(1, maxWeight / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment<>(segmentSize, segmentWeight, evictionCount);
+        }
+    }
+
+    public V get(K key) {
+        V value = segmentFor(key).get(key, System.currentTimeMillis());
+        if (value == null) {
+            missCount.increment();
+        } else {
+            hitCount.increment();
+        }
+        return value;
+    }
+
+    public void put(K key, V value) {
+        if (value == null) {
+            return;
+        }
+        segmentFor(key).put(key, value, weigher.applyAsInt(value), System.currentTimeMillis() + ttlMillis);
+    }
+
+    public void invalidate(K key) {
+        segmentFor(key).remove(key);
+    }
+
+    public void invalidateAll() {
+        for (Segment<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Segment<K, V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long weight() {
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            weight += segment.weight();
+        }
+        return weight;
+    }
+
+    /**
+     * 命中、未命中、淘汰（含过期）次数，以及当前的条目数和权重
+     */
+    public Map<String, Object> stats() {
+        long hits = hitCount.sum();
+        long misses = missCount.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hitCount", hits);
+        stats.put("missCount", misses);
+        stats.put("hitRate", hits + misses == 0 ? 0D : (double) hits / (hits + misses));
+        stats.put("evictionCount", evictionCount.sum());
+        stats.put("size", size());
+        stats.put("weight", weight());
+        return stats;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENT_COUNT - 1)];
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final int weight;
+        final long expireAt;
+
+        Entry(V value, int weight, long expireAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private static class Segment<SK, SV> {
+        // accessOrder = true，get也会把条目移到队尾，队头就是最久未访问的
+        private final LinkedHashMap<SK, Entry<SV>> map = new LinkedHashMap<>(16, 0.75f, true);
+        private final int maxSize;
+        private final long maxWeight;
+        private final LongAdder evictionCount;
+        private long weight;
+
+        Segment(int maxSize, long maxWeight, LongAdder evictionCount) {
+            this.maxSize = maxSize;
+            this.maxWeight = maxWeight;
+            this.evictionCount = evictionCount;
+        }
+
+        synchronized SV get(SK key, long now) {
+            Entry<SV> entry = map.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expireAt <= now) {
+                map.remove(key);
+                weight -= entry.weight;
+                evictionCount.increment();
+                return null;
+            }
+            return entry.value;
+        }
+
+        synchronized void put(SK key, SV value, int entryWeight, long expireAt) {
+            // 单个条目就超过了段的权重上限，不缓存
+            if (entryWeight > maxWeight) {
+                Entry<SV> old = map.remove(key);
+                if (old != null) {
+                    weight -= old.weight;
+                }
+                return;
+            }
+            Entry<SV> old = map.put(key, new Entry<>(value, entryWeight, expireAt));
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += entryWeight;
+            // 超过条目数或权重上限，从最久未访问的开始淘汰
+            Iterator<Map.Entry<SK, Entry<SV>>> it = map.entrySet().iterator();
+            while ((map.size() > maxSize || weight > maxWeight) && it.hasNext()) {
+                Map.Entry<SK, Entry<SV>> eldest = it.next();
+                if (eldest.getKey().equals(key)) {
+                    continue;
+                }
+                weight -= eldest.getValue().weight;
+                it.remove();
+                evictionCount.increment();
+            }
+        }
+
+        synchronized void remove(SK key) {
+            Entry<SV> old = map.remove(key);
+            if (old != null) {
+                weight -= old.weight;
+            }
+        }
+
+        synchronized void clear() {
+            map.clear();
+            weight = 0;
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        synchronized long weight() {
+            return weight;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 运行指标的登记处。各组件把自己的统计快照注册进来，由 /metrics 统一输出。
+ */
+@Component
+public class Metrics {
+
+    private final Map<String, Supplier<?>> sources = new ConcurrentHashMap<>();
+
+    /**
+     * 注册一个指标
+     *
+     * @param name     指标名，例如 cache.shop.local
+     * @param snapshot 每次调用返回当前的统计值
+     */
+    public void register(String name, Supplier<?> snapshot) {
+        sources.put(name, snapshot);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new TreeMap<>();
+        sources.forEach((name, snapshot) -> result.put(name, snapshot.get()));
+        return result;
+    }
+}
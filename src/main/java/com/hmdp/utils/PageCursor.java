@@ -0,0 +1,90 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 游标分页（keyset）的游标：上一页最后一条的排序值和id，编码成不透明的字符串返回给前端。
+ * <p>
+ * 下一页用 WHERE (排序值, id) 在游标之后 LIMIT size 查询，不用 LIMIT offset, size，也不查总数，
+ * 翻到多深都只扫描一页的数据。排序值就是id时只用id；内存或redis中排序的列表，排序值是已经返回的条数。
+ * </p>
+ */
+public class PageCursor {
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final PageCursor FIRST = new PageCursor(true, 0, 0);
+
+    private final boolean first;
+    private final long key;
+    private final long id;
+
+    private PageCursor(boolean first, long key, long id) {
+        this.first = first;
+        this.key = key;
+        this.id = id;
+    }
+
+    public static String encode(long key, long id) {
+        return ENCODER.encodeToString((key + ":" + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor 前端传回的游标，空字符串表示第一页
+     * @return 游标格式错误、排序值或id为负数时返回null
+     */
+    public static PageCursor decode(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return FIRST;
+        }
+        try {
+            String text = new String(DECODER.decode(cursor), StandardCharsets.UTF_8);
+            int i = text.indexOf(':');
+            if (i <= 0) {
+                return null;
+            }
+            long key = Long.parseLong(text.substring(0, i));
+            long id = Long.parseLong(text.substring(i + 1));
+            // 排序值和id都不会是负数，负数的条数会变成 LIMIT -n 或 subList(-n)
+            if (key < 0 || id < 0) {
+                return null;
+            }
+            return new PageCursor(false, key, id);
+        } catch (IllegalArgumentException e) {
+            // 不是合法的base64或数字
+            return null;
+        }
+    }
+
+    /**
+     * 多查一条判断是否还有下一页：查出size + 1条时去掉最后一条，并用第size条生成下一页的游标
+     *
+     * @param rows       按 size + 1 查出的数据
+     * @param nextCursor 由一页的最后一条生成游标
+     */
+    public static <T> Result result(List<T> rows, int size, Function<T, String> nextCursor) {
+        if (rows.size() <= size) {
+            return Result.ok(rows, (String) null);
+        }
+        List<T> page = rows.subList(0, size);
+        return Result.ok(page, nextCursor.apply(page.get(size - 1)));
+    }
+
+    public boolean isFirst() {
+        return first;
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    public long getId() {
+        return id;
+    }
+}
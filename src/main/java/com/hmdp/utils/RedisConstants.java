@@ -5,20 +5,69 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 5L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final Long CACHE_SHOP_LOGICAL_TTL = 20L;
 
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shoptype";
 
+    public static final String CACHE_REBUILD_KEY = "cache:rebuild:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+
+    public static final String CACHE_VOUCHER_SHOP_KEY = "cache:voucher:shop:";
+    public static final Long CACHE_VOUCHER_TTL = 5L;
+
+    public static final String CACHE_USER_INFO_KEY = "cache:user:info:";
+    public static final Long CACHE_USER_INFO_TTL = 30L;
+
+    public static final String CACHE_USER_PROFILE_KEY = "cache:user:profile:";
+    public static final Long CACHE_USER_PROFILE_TTL = 30L;
+
+    public static final String LOCK_KEY_PREFIX = "lock:";
+    public static final String LOCK_RELEASE_CHANNEL = "lock:release";
+    public static final String LOCK_ORDER_KEY = "order:";
+
+    public static final String BLOOM_FILTER_KEY = "bloom:";
+
+    public static final String ID_INCREMENT_KEY = "icr:";
+    public static final Long ID_INCREMENT_TTL = 2L;
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_TIME_KEY = "seckill:time:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    public static final String SECKILL_ORDER_DEAD_STREAM = "stream.orders.dead";
+    public static final String SECKILL_ORDER_ATTEMPTS_KEY = "seckill:attempts";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_HOT_SEEDING_KEY = "blog:hot:seeding";
+    public static final String BLOG_LIKE_DELTA_KEY = "blog:like:delta";
+    public static final String BLOG_LIKE_FLUSHING_KEY = "blog:like:delta:flushing";
+    public static final String BLOG_LIKE_SINCE_KEY = "blog:like:delta:since";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_CELEBRITY_KEY = "feed:celebrities";
+    public static final String FEED_FANOUT_STREAM = "stream.feed";
+    public static final String FEED_FANOUT_GROUP = "g1";
+    public static final String FEED_FANOUT_DEAD_STREAM = "stream.feed.dead";
+    public static final String FEED_FANOUT_PROGRESS_KEY = "feed:fanout:progress";
+    public static final String FEED_RECOVER_CURSOR_KEY = "feed:fanout:recover";
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FOLLOWS_VERSION_KEY = "follows:version:";
+    public static final String FOLLOWS_LOADING_KEY = "follows:loading:";
+    public static final Long FOLLOWS_TTL = 30L;
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_SEARCH_KEY = "shop:search:";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String UV_KEY = "uv:";
+    public static final Long UV_TTL = 90L;
 }
@@ -0,0 +1,108 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 全局唯一id生成器。
+ * <p>
+ * id由两部分组成：高31位是相对于 {@link #BEGIN_TIMESTAMP} 的秒数，低32位是当天的序列号，符号位固定为0。
+ * 序列号来自redis中按天划分的计数器，但不是每个id都访问一次redis：
+ * 每次用INCRBY租用一段序列号放在内存中，用完或者跨天了再租下一段。
+ * 所有节点都从同一个计数器租用，序列号不会重复，因此不需要节点id。
+ * </p>
+ */
+@Component
+public class RedisIdWorker {
+
+    /**
+     * 开始时间戳，2022-01-01 00:00:00 UTC
+     */
+    private static final long BEGIN_TIMESTAMP = 1640995200L;
+    /**
+     * 序列号的位数
+     */
+    private static final int COUNT_BITS = 32;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private final StringRedisTemplate stringRedisTemplate;
+    /**
+     * 业务前缀 -> 当前租用的序列号段
+     */
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+
+    private final LongAdder generatedCount = new LongAdder();
+    private final LongAdder leaseCount = new LongAdder();
+    private final LatencyRecorder leaseLatency = new LatencyRecorder();
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, Metrics metrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        metrics.register("id.worker", this::stats);
+    }
+
+    /**
+     * 生成下一个id
+     *
+     * @param keyPrefix 业务前缀，例如 order，不同业务的序列号互不影响
+     */
+    public long nextId(String keyPrefix) {
+        // 1. 生成时间戳
+        LocalDateTime now = LocalDateTime.now(ZoneOffset.UTC);
+        long timestamp = now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        // 2. 生成序列号，同一时刻只有一个线程能修改同一业务的序列号段
+        String date = now.format(DATE_FORMATTER);
+        Lease lease = leases.computeIfAbsent(keyPrefix, k -> new Lease());
+        long count;
+        synchronized (lease) {
+            if (!date.equals(lease.date) || lease.next > lease.end) {
+                // 2.1 跨天了或者用完了，从redis租用下一段
+                renew(lease, keyPrefix, date);
+            }
+            count = lease.next++;
+        }
+        generatedCount.increment();
+        // 3. 拼接并返回
+        return timestamp << COUNT_BITS | count;
+    }
+
+    private void renew(Lease lease, String keyPrefix, String date) {
+        long begin = System.nanoTime();
+        String key = RedisConstants.ID_INCREMENT_KEY + keyPrefix + ":" + date;
+        Long end = stringRedisTemplate.opsForValue().increment(key, SystemConstants.ID_LEASE_SIZE);
+        if (end == null) {
+            throw new IllegalStateException("租用序列号失败：" + key);
+        }
+        if (end == SystemConstants.ID_LEASE_SIZE) {
+            // 当天第一次租用，设置过期时间，旧的计数器自动清理
+            stringRedisTemplate.expire(key, RedisConstants.ID_INCREMENT_TTL, TimeUnit.DAYS);
+        }
+        lease.date = date;
+        lease.next = end - SystemConstants.ID_LEASE_SIZE + 1;
+        lease.end = end;
+        leaseCount.increment();
+        leaseLatency.recordSince(begin);
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("generated", generatedCount.sum());
+        stats.put("leases", leaseCount.sum());
+        stats.put("lease", leaseLatency.snapshot());
+        return stats;
+    }
+
+    private static class Lease {
+        String date;
+        long next = 1;
+        long end = 0;
+    }
+}
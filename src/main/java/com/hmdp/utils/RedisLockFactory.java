@@ -0,0 +1,313 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于redis的分布式锁。
+ * <p>
+ * 1. 锁是一个hash，field是持有者标识（节点id + 线程id），value是重入次数，加锁、释放、续期都用lua脚本保证原子性；<br>
+ * 2. 持有期间看门狗每隔租期的1/3续期一次，节点宕机后锁最多保留一个租期；<br>
+ * 3. 释放锁时通过发布订阅通知等待的线程，等待期间不用轮询redis；<br>
+ * 4. 统计获取锁的等待时间和持有时间。
+ * </p>
+ */
+@Slf4j
+@Component
+public class RedisLockFactory implements MessageListener {
+
+    private static final DefaultRedisScript<Long> LOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        LOCK_SCRIPT = new DefaultRedisScript<>();
+        LOCK_SCRIPT.setLocation(new ClassPathResource("lock.lua"));
+        LOCK_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final String nodeId = UUID.randomUUID().toString(true);
+    private final String leaseMillis = String.valueOf(SystemConstants.LOCK_LEASE_MILLIS);
+    /**
+     * 锁的key + 持有者 -> 本节点持有锁的状态，只有持有者线程会修改
+     */
+    private final Map<String, Holding> holdings = new ConcurrentHashMap<>();
+    /**
+     * 锁的key -> 等待这个锁释放的线程
+     */
+    private final Map<String, Waiters> waiters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "lock-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder acquiredCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder renewedCount = new LongAdder();
+    private final LongAdder lostCount = new LongAdder();
+    private final LatencyRecorder waitLatency = new LatencyRecorder();
+    private final LatencyRecorder holdLatency = new LatencyRecorder();
+
+    public RedisLockFactory(StringRedisTemplate stringRedisTemplate,
+                            RedisMessageListenerContainer listenerContainer,
+                            Metrics metrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        metrics.register("lock", this::stats);
+    }
+
+    @PostConstruct
+    public void start() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.LOCK_RELEASE_CHANNEL));
+    }
+
+    @PreDestroy
+    public void stop() {
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * 获取一把锁，只是创建对象，不会访问redis
+     *
+     * @param name 锁的名称，实际的key是 lock: + name
+     */
+    public ILock getLock(String name) {
+        return new RedisLock(RedisConstants.LOCK_KEY_PREFIX + name);
+    }
+
+    /**
+     * 等待锁被释放，不获取锁。用于等别人重建完缓存后直接读缓存
+     *
+     * @return 等待期间锁是否被释放过（或已不存在）
+     */
+    public boolean awaitRelease(String name, long waitTime, TimeUnit unit) throws InterruptedException {
+        String key = RedisConstants.LOCK_KEY_PREFIX + name;
+        Waiters w = enterWait(key);
+        try {
+            Long ttl = stringRedisTemplate.getExpire(key, TimeUnit.MILLISECONDS);
+            // 锁已经不存在了
+            if (ttl == null || ttl == -2) {
+                return true;
+            }
+            long timeout = Math.min(unit.toMillis(waitTime), ttl < 0 ? Long.MAX_VALUE : ttl);
+            return w.semaphore.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+        } finally {
+            exitWait(key, w);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        Waiters w = waiters.get(key);
+        if (w != null) {
+            // 唤醒所有等待的线程，由它们重新竞争
+            w.semaphore.release(w.count.get());
+        }
+    }
+
+    private String owner() {
+        return nodeId + ":" + Thread.currentThread().getId();
+    }
+
+    private Waiters enterWait(String key) {
+        return waiters.compute(key, (k, w) -> {
+            if (w == null) {
+                w = new Waiters();
+            }
+            w.count.incrementAndGet();
+            return w;
+        });
+    }
+
+    private void exitWait(String key, Waiters w) {
+        waiters.computeIfPresent(key, (k, current) -> {
+            if (current != w) {
+                return current;
+            }
+            return w.count.decrementAndGet() == 0 ? null : w;
+        });
+    }
+
+    /**
+     * 执行加锁脚本
+     *
+     * @return null表示获取成功，否则是锁的剩余过期时间
+     */
+    private Long acquire(String key, String owner) {
+        Long ttl = stringRedisTemplate.execute(LOCK_SCRIPT, Collections.singletonList(key), owner, leaseMillis);
+        if (ttl == null) {
+            // 第一次获取时开启看门狗，重入时只增加计数
+            String holdingKey = key + "|" + owner;
+            Holding holding = holdings.get(holdingKey);
+            if (holding == null) {
+                holding = new Holding();
+                long period = SystemConstants.LOCK_LEASE_MILLIS / 3;
+                holding.renewal = watchdog.scheduleAtFixedRate(
+                        () -> renew(key, owner, holdingKey), period, period, TimeUnit.MILLISECONDS);
+                holdings.put(holdingKey, holding);
+            }
+            holding.count++;
+        }
+        return ttl;
+    }
+
+    private void renew(String key, String owner, String holdingKey) {
+        try {
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(key), owner, leaseMillis);
+            if (renewed != null && renewed == 1) {
+                renewedCount.increment();
+                return;
+            }
+            // 锁已经不是自己的了（过期或被删除），停止续期
+            lostCount.increment();
+            log.warn("锁已丢失，停止续期：{}", key);
+            Holding holding = holdings.remove(holdingKey);
+            if (holding != null) {
+                holding.renewal.cancel(false);
+            }
+        } catch (Exception e) {
+            // redis暂时不可用，下次再试
+            log.error("锁续期失败：{}", key, e);
+        }
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("acquired", acquiredCount.sum());
+        stats.put("failed", failedCount.sum());
+        stats.put("renewed", renewedCount.sum());
+        stats.put("lost", lostCount.sum());
+        stats.put("held", holdings.size());
+        stats.put("waiting", waiters.values().stream().mapToInt(w -> w.count.get()).sum());
+        stats.put("wait", waitLatency.snapshot());
+        stats.put("hold", holdLatency.snapshot());
+        return stats;
+    }
+
+    private class RedisLock implements ILock {
+
+        private final String key;
+
+        RedisLock(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public boolean tryLock() {
+            long begin = System.nanoTime();
+            boolean success = acquire(key, owner()) == null;
+            afterAcquire(success, begin);
+            return success;
+        }
+
+        @Override
+        public boolean tryLock(long waitTime, TimeUnit unit) throws InterruptedException {
+            long begin = System.nanoTime();
+            long deadline = begin + unit.toNanos(waitTime);
+            String owner = owner();
+            // 1. 先试一次，大部分情况下锁是空闲的
+            Long ttl = acquire(key, owner);
+            if (ttl == null) {
+                afterAcquire(true, begin);
+                return true;
+            }
+            // 2. 订阅释放通知后再重试，避免错过订阅之前的释放
+            Waiters w = enterWait(key);
+            try {
+                while (true) {
+                    ttl = acquire(key, owner);
+                    if (ttl == null) {
+                        afterAcquire(true, begin);
+                        return true;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        afterAcquire(false, begin);
+                        return false;
+                    }
+                    // 3. 等待释放通知，最多等到锁过期
+                    long timeout = ttl > 0 ? Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(ttl)) : remaining;
+                    w.semaphore.tryAcquire(timeout, TimeUnit.NANOSECONDS);
+                }
+            } finally {
+                exitWait(key, w);
+            }
+        }
+
+        @Override
+        public void unlock() {
+            String owner = owner();
+            Long result = stringRedisTemplate.execute(
+                    UNLOCK_SCRIPT,
+                    Arrays.asList(key, RedisConstants.LOCK_RELEASE_CHANNEL),
+                    owner, leaseMillis
+            );
+            String holdingKey = key + "|" + owner;
+            Holding holding = holdings.get(holdingKey);
+            if (result == null) {
+                // 锁已经过期或者被别人持有，不能删除别人的锁
+                log.warn("释放锁失败，当前线程未持有锁：{}", key);
+            }
+            if (holding != null && --holding.count <= 0) {
+                holdings.remove(holdingKey);
+                holding.renewal.cancel(false);
+                holdLatency.recordSince(holding.acquireNanos);
+            }
+        }
+
+        private void afterAcquire(boolean success, long begin) {
+            waitLatency.recordSince(begin);
+            if (success) {
+                acquiredCount.increment();
+            } else {
+                failedCount.increment();
+            }
+        }
+    }
+
+    private static class Holding {
+        final long acquireNanos = System.nanoTime();
+        int count;
+        ScheduledFuture<?> renewal;
+    }
+
+    private static class Waiters {
+        final Semaphore semaphore = new Semaphore(0);
+        final AtomicInteger count = new AtomicInteger();
+    }
+}
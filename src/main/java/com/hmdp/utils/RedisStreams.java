@@ -0,0 +1,125 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.IdUtil;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * redis stream消费者的公共方法
+ */
+public class RedisStreams {
+
+    private RedisStreams() {
+    }
+
+    /**
+     * 创建消费者组，stream不存在时一起创建 XGROUP CREATE stream group 0 MKSTREAM
+     */
+    public static void createGroupIfAbsent(StringRedisTemplate stringRedisTemplate, String stream, String group) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    "CREATE".getBytes(StandardCharsets.UTF_8),
+                    stream.getBytes(StandardCharsets.UTF_8),
+                    group.getBytes(StandardCharsets.UTF_8),
+                    "0".getBytes(StandardCharsets.UTF_8),
+                    "MKSTREAM".getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            // 消费者组已经存在
+            String message = String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage());
+            if (!message.contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 消费者名称：主机名加随机后缀，每个进程唯一，主机名相同的节点不会共用一个pending-list。
+     * 重启后是新的消费者，原来pending-list中的消息由 {@link #claimIdle} 转给存活的消费者
+     */
+    public static String consumerName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "c";
+        }
+        return host + "-" + IdUtil.fastSimpleUUID().substring(0, 8);
+    }
+
+    /**
+     * 把其他消费者超过minIdle没有ack的消息转给consumer：
+     * XPENDING stream group start + count 分页查出空闲的消息，再 XCLAIM stream group consumer minIdle id...。
+     * XCLAIM会再校验一次空闲时间，多个节点同时认领时一条消息只会被一个认领。
+     * 认领到的消息进入consumer自己的pending-list，由调用方按处理pending-list的流程重新处理
+     *
+     * @return 认领到的消息数
+     */
+    public static int claimIdle(StringRedisTemplate stringRedisTemplate, String stream, String group,
+                                String consumer, Duration minIdle) {
+        byte[] rawStream = stream.getBytes(StandardCharsets.UTF_8);
+        int claimed = 0;
+        Range<String> range = Range.unbounded();
+        while (true) {
+            // 1. 分页查询消费者组中没有ack的消息，每条带有所属的消费者和空闲时间
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(stream, group, range, SystemConstants.STREAM_CLAIM_BATCH_SIZE);
+            if (pending == null || pending.isEmpty()) {
+                return claimed;
+            }
+            // 2. 认领其他消费者空闲太久的消息
+            RecordId[] idle = pending.stream()
+                    .filter(p -> !consumer.equals(p.getConsumerName()))
+                    .filter(p -> p.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0)
+                    .map(PendingMessage::getId)
+                    .toArray(RecordId[]::new);
+            if (idle.length > 0) {
+                List<RecordId> ids = stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection ->
+                        connection.xClaimJustId(rawStream, group, consumer, XClaimOptions.minIdle(minIdle).ids(idle)));
+                claimed += ids == null ? 0 : ids.size();
+            }
+            if (pending.size() < SystemConstants.STREAM_CLAIM_BATCH_SIZE) {
+                return claimed;
+            }
+            // 3. 下一页从这一页最后一条之后开始
+            String lastId = pending.get(pending.size() - 1).getIdAsString();
+            range = Range.rightUnbounded(Range.Bound.inclusive(nextId(lastId)));
+        }
+    }
+
+    /**
+     * 删除没有未ack消息、空闲太久的消费者，宕机节点的消费者不会一直留在消费者组中
+     */
+    public static void deleteIdleConsumers(StringRedisTemplate stringRedisTemplate, String stream, String group,
+                                           Duration maxIdle) {
+        StreamInfo.XInfoConsumers consumers = stringRedisTemplate.opsForStream().consumers(stream, group);
+        if (consumers == null) {
+            return;
+        }
+        consumers.forEach(c -> {
+            if (c.pendingCount() == 0 && c.idleTime().compareTo(maxIdle) > 0) {
+                stringRedisTemplate.opsForStream().deleteConsumer(stream, Consumer.from(group, c.consumerName()));
+            }
+        });
+    }
+
+    /**
+     * 紧跟在id之后的消息id，XPENDING在redis 6.2之前不支持开区间
+     */
+    private static String nextId(String id) {
+        int i = id.indexOf('-');
+        return id.substring(0, i + 1) + (Long.parseLong(id.substring(i + 1)) + 1);
+    }
+}
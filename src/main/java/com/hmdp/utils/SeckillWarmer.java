@@ -0,0 +1,229 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 秒杀券的库存和秒杀时间预热到redis，秒杀开始后下单只访问redis。
+ * <p>
+ * 1. 新增秒杀券时，事务提交后写入库存和秒杀时间，回滚时不会留下redis中的脏数据；<br>
+ * 2. 启动时核对所有没有结束的秒杀券：redis中应有的库存 = 数据库库存 - 已下单但还没写入数据库的订单数，
+ * 缺失的key单独补上，已有的库存不覆盖；不一致的记录偏差，还没开始的直接修正，已经开始的只报告，不和正在进行的扣减竞争。
+ * </p>
+ */
+@Slf4j
+@Component
+public class SeckillWarmer implements ApplicationRunner {
+
+    private static final int BATCH_SIZE = 500;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ISeckillVoucherService seckillVoucherService;
+    private final IVoucherOrderService voucherOrderService;
+    private final RedisLockFactory lockFactory;
+
+    private final LongAdder warmedCount = new LongAdder();
+    private final LongAdder restoredCount = new LongAdder();
+    private final LongAdder correctedCount = new LongAdder();
+    private volatile long checkedVouchers;
+    private volatile long driftVouchers;
+    private volatile long driftStock;
+    private volatile long lastReconcileTime;
+
+    public SeckillWarmer(StringRedisTemplate stringRedisTemplate,
+                         ISeckillVoucherService seckillVoucherService,
+                         IVoucherOrderService voucherOrderService,
+                         RedisLockFactory lockFactory,
+                         Metrics metrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillVoucherService = seckillVoucherService;
+        this.voucherOrderService = voucherOrderService;
+        this.lockFactory = lockFactory;
+        metrics.register("seckill.warmup", this::stats);
+    }
+
+    /**
+     * 新增秒杀券后预热，在事务中调用时等事务提交后再写redis
+     */
+    public void warmAfterCommit(SeckillVoucher voucher) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    warm(voucher, voucher.getStock());
+                }
+            });
+        } else {
+            warm(voucher, voucher.getStock());
+        }
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        reconcile();
+    }
+
+    /**
+     * 核对所有没有结束的秒杀券
+     */
+    public void reconcile() {
+        // 多个节点同时启动时只需要一个核对
+        ILock lock = lockFactory.getLock(RedisConstants.SECKILL_STOCK_KEY + "reconcile");
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            long checked = 0;
+            long drifted = 0;
+            long drift = 0;
+            long lastId = 0;
+            while (true) {
+                // 1. 按主键分批查询没有结束的秒杀券
+                List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                        .gt("voucher_id", lastId)
+                        .gt("end_time", LocalDateTime.now())
+                        .orderByAsc("voucher_id")
+                        .last("LIMIT " + BATCH_SIZE)
+                        .list();
+                if (vouchers.isEmpty()) {
+                    break;
+                }
+                // 2. 一次pipeline读出redis中的库存、已下单用户数、秒杀时间是否存在
+                List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (SeckillVoucher voucher : vouchers) {
+                        connection.get((RedisConstants.SECKILL_STOCK_KEY + voucher.getVoucherId()).getBytes(StandardCharsets.UTF_8));
+                        connection.sCard((RedisConstants.SECKILL_ORDER_KEY + voucher.getVoucherId()).getBytes(StandardCharsets.UTF_8));
+                        connection.exists((RedisConstants.SECKILL_TIME_KEY + voucher.getVoucherId()).getBytes(StandardCharsets.UTF_8));
+                    }
+                    return null;
+                });
+                // 3. 一条分组查询统计已经写入数据库的订单数
+                Map<Long, Long> persisted = countOrders(vouchers);
+                long now = System.currentTimeMillis();
+                for (int i = 0; i < vouchers.size(); i++) {
+                    SeckillVoucher voucher = vouchers.get(i);
+                    Object stock = results.get(i * 3);
+                    long ordered = results.get(i * 3 + 1) == null ? 0 : (Long) results.get(i * 3 + 1);
+                    boolean hasTime = Boolean.TRUE.equals(results.get(i * 3 + 2));
+                    // 数据库的库存在订单写入时才扣减，还要减去redis中已下单、数据库中还没有的订单
+                    long inFlight = Math.max(0, ordered - persisted.getOrDefault(voucher.getVoucherId(), 0L));
+                    int expected = (int) Math.max(0, voucher.getStock() - inFlight);
+                    checked++;
+                    if (stock == null || !hasTime) {
+                        // 4. redis中缺失，只补缺失的key；已有的库存可能正在被扣减，不能覆盖
+                        if (stock == null) {
+                            restoreStock(voucher, expected);
+                        }
+                        if (!hasTime) {
+                            warmTime(voucher);
+                        }
+                        restoredCount.increment();
+                        if (stock == null) {
+                            continue;
+                        }
+                    }
+                    long actual = Long.parseLong(stock.toString());
+                    if (actual != expected) {
+                        // 5. 不一致：还没开始的直接修正，已经开始的只报告
+                        drifted++;
+                        drift += Math.abs(actual - expected);
+                        log.warn("秒杀券{}的库存不一致，redis：{}，应为：{}", voucher.getVoucherId(), actual, expected);
+                        if (toEpochMilli(voucher.getBeginTime()) > now) {
+                            warm(voucher, expected);
+                            correctedCount.increment();
+                        }
+                    }
+                }
+                if (vouchers.size() < BATCH_SIZE) {
+                    break;
+                }
+                lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+            }
+            checkedVouchers = checked;
+            driftVouchers = drifted;
+            driftStock = drift;
+            lastReconcileTime = System.currentTimeMillis();
+            log.info("秒杀库存核对完成，共{}张秒杀券，{}张不一致，耗时{}ms",
+                    checked, drifted, lastReconcileTime - begin);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写入库存和秒杀时间
+     */
+    private void warm(SeckillVoucher voucher, int stock) {
+        stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucher.getVoucherId(), String.valueOf(stock));
+        warmTime(voucher);
+        warmedCount.increment();
+    }
+
+    /**
+     * 补上缺失的库存，核对期间被其他节点写入的不覆盖
+     */
+    private void restoreStock(SeckillVoucher voucher, int stock) {
+        stringRedisTemplate.opsForValue().setIfAbsent(RedisConstants.SECKILL_STOCK_KEY + voucher.getVoucherId(), String.valueOf(stock));
+    }
+
+    /**
+     * 写入秒杀时间，时间只来自数据库，重复写入没有影响
+     */
+    private void warmTime(SeckillVoucher voucher) {
+        Map<String, String> times = new HashMap<>();
+        times.put("begin", String.valueOf(toEpochMilli(voucher.getBeginTime())));
+        times.put("end", String.valueOf(toEpochMilli(voucher.getEndTime())));
+        stringRedisTemplate.opsForHash().putAll(RedisConstants.SECKILL_TIME_KEY + voucher.getVoucherId(), times);
+    }
+
+    private Map<Long, Long> countOrders(List<SeckillVoucher> vouchers) {
+        List<Long> ids = vouchers.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+        List<Map<String, Object>> rows = voucherOrderService.listMaps(new QueryWrapper<VoucherOrder>()
+                .select("voucher_id", "COUNT(*) AS cnt")
+                .in("voucher_id", ids)
+                .groupBy("voucher_id"));
+        Map<Long, Long> counts = new HashMap<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            counts.put(((Number) row.get("voucher_id")).longValue(), ((Number) row.get("cnt")).longValue());
+        }
+        return counts;
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("warmed", warmedCount.sum());
+        stats.put("restored", restoredCount.sum());
+        stats.put("corrected", correctedCount.sum());
+        stats.put("checkedVouchers", checkedVouchers);
+        stats.put("driftVouchers", driftVouchers);
+        stats.put("driftStock", driftStock);
+        stats.put("lastReconcileTime", lastReconcileTime);
+        return stats;
+    }
+}
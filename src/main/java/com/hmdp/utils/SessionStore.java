@@ -0,0 +1,283 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 登录状态的存储，token -> redis中的用户hash。
+ * <p>
+ * 1. 没有token的请求直接返回，不访问redis；<br>
+ * 2. HGETALL和TTL放在一个pipeline里，一次往返；<br>
+ * 3. 只有当ttl已经消耗了一定比例后才续期，不是每个请求都EXPIRE；<br>
+ * 4. 本地缓存几秒钟的会话，同一个用户连续的请求不重复访问redis。退出登录时通知所有节点清除。
+ * </p>
+ * 配置 hmdp.session.mode=signed 时改用签名令牌：用户信息和过期时间直接放在令牌里，
+ * 用HMAC签名，在本地校验，不访问redis。退出登录的令牌放在redis的zset中，
+ * 每个节点在内存中保存一份，通过发布订阅同步，并定期全量同步一次。
+ */
+@Slf4j
+@Component
+public class SessionStore {
+
+    private static final String MODE_SIGNED = "signed";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheInvalidator cacheInvalidator;
+    private final LocalCache<String, UserDTO> localSessions;
+    /**
+     * 剩余ttl低于这个值（秒）时续期
+     */
+    private final long refreshBelowSeconds;
+
+    private final boolean signed;
+    private final SignedTokenCodec codec;
+    /**
+     * 已退出登录的签名令牌：jti -> 令牌的过期时间（秒）
+     */
+    private final Map<String, Long> revoked = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService revokedSyncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "session-revoked-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder redisReadCount = new LongAdder();
+    private final LongAdder signedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder refreshCount = new LongAdder();
+    private final LongAdder anonymousCount = new LongAdder();
+
+    public SessionStore(StringRedisTemplate stringRedisTemplate,
+                        CacheInvalidator cacheInvalidator,
+                        Metrics metrics,
+                        @Value("${hmdp.session.refresh-fraction:0.5}") double refreshFraction,
+                        @Value("${hmdp.session.local-ttl:5}") long localTtlSeconds,
+                        @Value("${hmdp.session.mode:redis}") String mode,
+                        @Value("${hmdp.session.secret:}") String secret) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheInvalidator = cacheInvalidator;
+        this.refreshBelowSeconds = (long) (RedisConstants.LOGIN_USER_TTL * (1 - refreshFraction));
+        this.localSessions = new LocalCache<>(SystemConstants.LOCAL_SESSION_MAX_SIZE, Long.MAX_VALUE,
+                localTtlSeconds, TimeUnit.SECONDS, user -> 1);
+        // 其他节点退出登录时，清除本节点缓存的会话
+        cacheInvalidator.subscribe(RedisConstants.LOGIN_USER_KEY, localSessions::invalidate);
+        this.signed = MODE_SIGNED.equalsIgnoreCase(mode);
+        if (signed && StrUtil.isBlank(secret)) {
+            // 随机密钥只在本节点有效，多节点之间令牌不能互认，直接拒绝启动
+            throw new IllegalStateException("signed模式必须配置 hmdp.session.secret，所有节点使用同一个密钥");
+        }
+        this.codec = signed ? new SignedTokenCodec(secret.getBytes(StandardCharsets.UTF_8)) : null;
+        metrics.register("session", this::stats);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!signed) {
+            return;
+        }
+        // 其他节点退出登录时，记录到本节点，后缀是 jti:exp
+        cacheInvalidator.subscribe(RedisConstants.LOGIN_REVOKED_KEY + ":", this::revokeLocal);
+        revokedSyncExecutor.scheduleWithFixedDelay(this::syncRevokedQuietly,
+                0, SystemConstants.SESSION_REVOKED_SYNC_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        revokedSyncExecutor.shutdownNow();
+    }
+
+    /**
+     * 保存登录用户，返回token
+     */
+    public String create(UserDTO user) {
+        if (signed) {
+            JSONObject payload = JSONUtil.createObj()
+                    .set("id", user.getId())
+                    .set("nickName", user.getNickName())
+                    .set("icon", user.getIcon())
+                    .set("exp", System.currentTimeMillis() / 1000 + RedisConstants.LOGIN_USER_TTL)
+                    .set("jti", UUID.randomUUID().toString(true));
+            return codec.encode(payload);
+        }
+        String token = UUID.randomUUID().toString(true);
+        String key = RedisConstants.LOGIN_USER_KEY + token;
+        Map<String, Object> userMap = BeanUtil.beanToMap(
+                user,
+                new HashMap<>(),
+                CopyOptions.create().setIgnoreNullValue(true).setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString())
+        );
+        stringRedisTemplate.opsForHash().putAll(key, userMap);
+        stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.SECONDS);
+        return token;
+    }
+
+    /**
+     * 根据token查登录用户，必要时续期
+     *
+     * @return 未登录或已过期返回null
+     */
+    @SuppressWarnings("unchecked")
+    public UserDTO get(String token) {
+        // 1. 没有token，未登录
+        if (StrUtil.isBlank(token)) {
+            anonymousCount.increment();
+            return null;
+        }
+        if (signed) {
+            return verifySigned(token);
+        }
+        // 2. 先查本地缓存
+        UserDTO user = localSessions.get(token);
+        if (user != null) {
+            return user;
+        }
+        // 3. 一次往返查出用户和剩余ttl
+        String key = RedisConstants.LOGIN_USER_KEY + token;
+        long stamp = cacheInvalidator.stamp();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            connection.hGetAll(rawKey);
+            connection.ttl(rawKey);
+            return null;
+        });
+        redisReadCount.increment();
+        Map<Object, Object> userMap = (Map<Object, Object>) results.get(0);
+        if (userMap == null || userMap.isEmpty()) {
+            return null;
+        }
+        user = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+        // 4. ttl已经消耗到阈值，续期
+        Long ttl = (Long) results.get(1);
+        if (ttl != null && ttl >= 0 && ttl < refreshBelowSeconds) {
+            stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.SECONDS);
+            refreshCount.increment();
+        }
+        // 5. 放入本地缓存，查询期间退出登录了就不放
+        if (!cacheInvalidator.isInvalidatedSince(key, stamp)) {
+            localSessions.put(token, user);
+        }
+        return user;
+    }
+
+    /**
+     * 退出登录，删除会话并通知所有节点
+     */
+    public void remove(String token) {
+        if (StrUtil.isBlank(token)) {
+            return;
+        }
+        if (signed) {
+            revokeSigned(token);
+            return;
+        }
+        String key = RedisConstants.LOGIN_USER_KEY + token;
+        stringRedisTemplate.delete(key);
+        cacheInvalidator.invalidate(key);
+    }
+
+    /**
+     * 本地校验签名令牌：签名、过期时间、是否已退出登录
+     */
+    private UserDTO verifySigned(String token) {
+        signedCount.increment();
+        JSONObject payload = codec.decode(token);
+        if (payload == null
+                || payload.getLong("exp", 0L) <= System.currentTimeMillis() / 1000
+                || revoked.containsKey(payload.getStr("jti", ""))) {
+            rejectedCount.increment();
+            return null;
+        }
+        UserDTO user = new UserDTO();
+        user.setId(payload.getLong("id"));
+        user.setNickName(payload.getStr("nickName"));
+        user.setIcon(payload.getStr("icon"));
+        return user;
+    }
+
+    /**
+     * 签名令牌退出登录：jti写入redis的zset，分数是过期时间，并通知所有节点
+     */
+    private void revokeSigned(String token) {
+        JSONObject payload = codec.decode(token);
+        if (payload == null) {
+            return;
+        }
+        String jti = payload.getStr("jti");
+        long exp = payload.getLong("exp", 0L);
+        if (jti == null || exp <= System.currentTimeMillis() / 1000) {
+            return;
+        }
+        stringRedisTemplate.opsForZSet().add(RedisConstants.LOGIN_REVOKED_KEY, jti, exp);
+        cacheInvalidator.invalidate(RedisConstants.LOGIN_REVOKED_KEY + ":" + jti + ":" + exp);
+    }
+
+    private void revokeLocal(String jtiAndExp) {
+        int i = jtiAndExp.lastIndexOf(':');
+        if (i > 0) {
+            revoked.put(jtiAndExp.substring(0, i), Long.parseLong(jtiAndExp.substring(i + 1)));
+        }
+    }
+
+    /**
+     * 清理已过期的记录，并从redis全量同步一次，补上错过的通知
+     */
+    private void syncRevoked() {
+        long now = System.currentTimeMillis() / 1000;
+        stringRedisTemplate.opsForZSet().removeRangeByScore(RedisConstants.LOGIN_REVOKED_KEY, 0, now);
+        revoked.values().removeIf(exp -> exp <= now);
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .rangeByScoreWithScores(RedisConstants.LOGIN_REVOKED_KEY, now, Double.POSITIVE_INFINITY);
+        if (tuples != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                if (tuple.getValue() != null && tuple.getScore() != null) {
+                    revoked.put(tuple.getValue(), tuple.getScore().longValue());
+                }
+            }
+        }
+    }
+
+    private void syncRevokedQuietly() {
+        try {
+            syncRevoked();
+        } catch (Exception e) {
+            log.error("同步已退出登录的令牌失败", e);
+        }
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("anonymous", anonymousCount.sum());
+        stats.put("redisReads", redisReadCount.sum());
+        stats.put("refreshes", refreshCount.sum());
+        stats.put("signedVerified", signedCount.sum());
+        stats.put("signedRejected", rejectedCount.sum());
+        stats.put("revoked", revoked.size());
+        stats.put("local", localSessions.stats());
+        return stats;
+    }
+}
@@ -0,0 +1,171 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 热点店铺的缓存预热。店铺查询用的是逻辑过期，缓存未命中时每个key加锁查一次数据库，预热让热点店铺在启动后不用走这一步。
+ * <p>
+ * 1. 热点店铺 = 配置的店铺id + 按销量、评论数排序的前N个；<br>
+ * 2. 分批用IN查询数据库，每批一次pipeline写入redis；<br>
+ * 3. 启动时在ApplicationRunner中同步执行，全部完成后应用才进入可以接收流量的状态；<br>
+ * 4. 之后定时检查一次，只补写redis中已经不存在的（比如被淘汰的）。
+ * </p>
+ * 进度和耗时通过指标 cache.warmup 查看。
+ */
+@Slf4j
+@Component
+public class ShopCacheWarmer implements ApplicationRunner {
+
+    private final IShopService shopService;
+    private final CacheClient cacheClient;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final List<Long> configuredIds;
+    private final int topN;
+
+    private volatile boolean ready;
+    private volatile long total;
+    private volatile long warmed;
+    private volatile long missing;
+    private volatile long warmMillis;
+    private volatile long lastCheckTime;
+    private volatile long lastRefilled;
+
+    public ShopCacheWarmer(IShopService shopService,
+                           CacheClient cacheClient,
+                           StringRedisTemplate stringRedisTemplate,
+                           Metrics metrics,
+                           @Value("${hmdp.warmup.shop-ids:}") String configuredIds,
+                           @Value("${hmdp.warmup.shop-top-n:1000}") int topN) {
+        this.shopService = shopService;
+        this.cacheClient = cacheClient;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.configuredIds = StrUtil.split(configuredIds, ',', true, true).stream()
+                .map(Long::valueOf)
+                .collect(Collectors.toList());
+        this.topN = topN;
+        metrics.register("cache.warmup", this::stats);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long begin = System.currentTimeMillis();
+        List<Long> ids = hotShopIds();
+        total = ids.size();
+        // 分批查询、写入，每批报告一次进度
+        for (List<Long> batch : CollUtil.split(ids, SystemConstants.WARMUP_BATCH_SIZE)) {
+            int loaded = load(batch);
+            warmed += loaded;
+            missing += batch.size() - loaded;
+            log.info("店铺缓存预热进度：{}/{}", warmed + missing, total);
+        }
+        warmMillis = System.currentTimeMillis() - begin;
+        ready = true;
+        log.info("店铺缓存预热完成，共{}个店铺，{}个不存在，耗时{}ms", warmed, missing, warmMillis);
+    }
+
+    /**
+     * 定时补写redis中已经不存在的热点店铺
+     */
+    @Scheduled(fixedDelay = SystemConstants.WARMUP_CHECK_INTERVAL, initialDelay = SystemConstants.WARMUP_CHECK_INTERVAL)
+    public void refill() {
+        if (!ready) {
+            return;
+        }
+        try {
+            long refilled = 0;
+            for (List<Long> batch : CollUtil.split(hotShopIds(), SystemConstants.WARMUP_BATCH_SIZE)) {
+                // 一次pipeline检查这一批的key是否存在
+                List<Object> exists = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (Long id : batch) {
+                        connection.exists((RedisConstants.CACHE_SHOP_KEY + id).getBytes(StandardCharsets.UTF_8));
+                    }
+                    return null;
+                });
+                List<Long> absent = new ArrayList<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    if (!Boolean.TRUE.equals(exists.get(i))) {
+                        absent.add(batch.get(i));
+                    }
+                }
+                if (!absent.isEmpty()) {
+                    refilled += load(absent);
+                }
+            }
+            lastRefilled = refilled;
+            lastCheckTime = System.currentTimeMillis();
+        } catch (Exception e) {
+            log.error("补写热点店铺缓存失败", e);
+        }
+    }
+
+    /**
+     * 配置的店铺id在前，再加上按销量、评论数排序的前N个，去重
+     */
+    private List<Long> hotShopIds() {
+        Set<Long> ids = new LinkedHashSet<>(configuredIds);
+        if (topN > 0) {
+            shopService.listObjs(
+                    shopService.query()
+                            .select("id")
+                            .orderByDesc("sold", "comments")
+                            .last("LIMIT " + topN)
+                            .getWrapper(),
+                    o -> ((Number) o).longValue()
+            ).forEach(ids::add);
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * 一次IN查询一批店铺，一次pipeline写入redis
+     *
+     * @return 数据库中存在的店铺数
+     */
+    private int load(List<Long> ids) {
+        List<Shop> shops = shopService.listByIds(ids);
+        Map<String, Shop> values = new LinkedHashMap<>(shops.size());
+        for (Shop shop : shops) {
+            values.put(RedisConstants.CACHE_SHOP_KEY + shop.getId(), shop);
+        }
+        cacheClient.setWithLogicalExpireBatch(values, RedisConstants.CACHE_SHOP_LOGICAL_TTL, TimeUnit.SECONDS);
+        return shops.size();
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ready", ready);
+        stats.put("total", total);
+        stats.put("warmed", warmed);
+        stats.put("missing", missing);
+        stats.put("progress", total == 0 ? (ready ? 1.0 : 0.0) : (double) (warmed + missing) / total);
+        stats.put("warmMillis", warmMillis);
+        stats.put("lastCheckTime", lastCheckTime);
+        stats.put("lastRefilled", lastRefilled);
+        return stats;
+    }
+}
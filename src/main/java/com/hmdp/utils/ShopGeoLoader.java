@@ -0,0 +1,24 @@
+package com.hmdp.utils;
+
+import com.hmdp.service.IShopService;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * 启动时按类型建立店铺坐标的GEO索引
+ */
+@Component
+public class ShopGeoLoader implements ApplicationRunner {
+
+    private final IShopService shopService;
+
+    public ShopGeoLoader(IShopService shopService) {
+        this.shopService = shopService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        shopService.loadShopGeo();
+    }
+}
@@ -0,0 +1,280 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 店铺名称的本地倒排索引，代替 LIKE '%name%' 的全表扫描。
+ * <p>
+ * 1. 名称、商圈、地址去掉空白和标点后，按单字和相邻两个字切词，适合没有空格分词的中文店名；<br>
+ * 2. 每个词记录出现在哪些店铺，以及按字段加权的分值：名称 > 商圈 > 地址；<br>
+ * 3. 查询时要求查询词的每个二元词都出现（只有一个字时用单字），按 分值 * idf 累加排序，
+ * 名称中完整包含查询词的再加分；<br>
+ * 4. 查询只访问查询词对应的倒排列表，和店铺总数无关。
+ * </p>
+ * 读多写少，用读写锁保护；每个节点各自在内存中维护一份。
+ */
+@Component
+public class ShopSearchIndex {
+
+    private static final float NAME_WEIGHT = 3f;
+    private static final float AREA_WEIGHT = 2f;
+    private static final float ADDRESS_WEIGHT = 1f;
+    /**
+     * 名称完整包含查询词、以查询词开头时额外加的分
+     */
+    private static final float NAME_CONTAINS_BONUS = 5f;
+    private static final float NAME_PREFIX_BONUS = 3f;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * 词 -> (店铺id -> 分值)
+     */
+    private final Map<String, Map<Long, Float>> postings = new HashMap<>();
+    /**
+     * 店铺id -> 索引过的词，更新、删除时用来清理倒排列表
+     */
+    private final Map<Long, Set<String>> docTokens = new HashMap<>();
+    /**
+     * 店铺id -> 规范化后的名称，用于完整匹配加分
+     */
+    private final Map<Long, String> docNames = new HashMap<>();
+    private volatile boolean ready;
+
+    private final LongAdder searchCount = new LongAdder();
+    private final LatencyRecorder searchLatency = new LatencyRecorder();
+
+    public ShopSearchIndex(Metrics metrics) {
+        metrics.register("search.shop", this::stats);
+    }
+
+    /**
+     * 全量加载完成后才能用于查询，之前由调用方回退到数据库
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void markReady() {
+        ready = true;
+    }
+
+    /**
+     * 新增或更新一个店铺的索引
+     */
+    public void put(Shop shop) {
+        Map<String, Float> weights = new HashMap<>();
+        addTokens(weights, shop.getName(), NAME_WEIGHT);
+        addTokens(weights, shop.getArea(), AREA_WEIGHT);
+        addTokens(weights, shop.getAddress(), ADDRESS_WEIGHT);
+        Long id = shop.getId();
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            weights.forEach((token, weight) -> postings.computeIfAbsent(token, t -> new HashMap<>()).put(id, weight));
+            docTokens.put(id, weights.keySet());
+            docNames.put(id, normalize(shop.getName()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Long id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 全量重建后移除数据库中已经没有的店铺。只处理不大于maxId的id，
+     * 重建期间新增、由通知加入索引的店铺不受影响
+     *
+     * @param loaded 本次全量加载到的店铺id
+     * @param maxId 本次全量加载到的最大id
+     * @return 移除的店铺数
+     */
+    public int removeAbsent(Set<Long> loaded, long maxId) {
+        lock.writeLock().lock();
+        try {
+            List<Long> absent = new ArrayList<>();
+            for (Long id : docTokens.keySet()) {
+                if (id <= maxId && !loaded.contains(id)) {
+                    absent.add(id);
+                }
+            }
+            absent.forEach(this::removeLocked);
+            return absent.size();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按相关度从高到低分页查询
+     *
+     * @param from 跳过的条数
+     * @param size 每页条数
+     * @return 当前页的店铺id
+     */
+    public List<Long> search(String query, int from, int size) {
+        long begin = System.nanoTime();
+        searchCount.increment();
+        String normalized = normalize(query);
+        List<String> tokens = queryTokens(normalized);
+        if (tokens.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, Float> scores;
+        lock.readLock().lock();
+        try {
+            // 1. 取出每个词的倒排列表，有一个词不存在就没有结果
+            List<Map<Long, Float>> lists = new ArrayList<>(tokens.size());
+            for (String token : tokens) {
+                Map<Long, Float> list = postings.get(token);
+                if (list == null) {
+                    return Collections.emptyList();
+                }
+                lists.add(list);
+            }
+            // 2. 从最短的列表开始求交集，累加 分值 * idf
+            lists.sort(Comparator.comparingInt(Map::size));
+            int total = docTokens.size();
+            scores = new HashMap<>();
+            Map<Long, Float> shortest = lists.get(0);
+            for (Long id : shortest.keySet()) {
+                float score = 0;
+                boolean matched = true;
+                for (Map<Long, Float> list : lists) {
+                    Float weight = list.get(id);
+                    if (weight == null) {
+                        matched = false;
+                        break;
+                    }
+                    score += weight * idf(total, list.size());
+                }
+                if (!matched) {
+                    continue;
+                }
+                // 3. 名称中完整包含查询词的加分
+                String name = docNames.get(id);
+                if (name != null && name.startsWith(normalized)) {
+                    score += NAME_CONTAINS_BONUS + NAME_PREFIX_BONUS;
+                } else if (name != null && name.contains(normalized)) {
+                    score += NAME_CONTAINS_BONUS;
+                }
+                scores.put(id, score);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        // 4. 按分值从高到低排序，分值相同的按id排序，保证翻页稳定
+        List<Long> ids = new ArrayList<>(scores.keySet());
+        ids.sort((a, b) -> {
+            int c = Float.compare(scores.get(b), scores.get(a));
+            return c != 0 ? c : Long.compare(a, b);
+        });
+        searchLatency.recordSince(begin);
+        if (from >= ids.size()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(ids.subList(from, Math.min(from + size, ids.size())));
+    }
+
+    private void removeLocked(Long id) {
+        Set<String> tokens = docTokens.remove(id);
+        docNames.remove(id);
+        if (tokens == null) {
+            return;
+        }
+        for (String token : tokens) {
+            Map<Long, Float> list = postings.get(token);
+            if (list != null) {
+                list.remove(id);
+                if (list.isEmpty()) {
+                    postings.remove(token);
+                }
+            }
+        }
+    }
+
+    /**
+     * 单字和相邻两个字都建索引，同一个词在多个字段出现时分值累加
+     */
+    private static void addTokens(Map<String, Float> weights, String text, float weight) {
+        String normalized = normalize(text);
+        Set<String> tokens = new LinkedHashSet<>();
+        for (int i = 0; i < normalized.length(); i++) {
+            tokens.add(normalized.substring(i, i + 1));
+            if (i + 1 < normalized.length()) {
+                tokens.add(normalized.substring(i, i + 2));
+            }
+        }
+        for (String token : tokens) {
+            weights.merge(token, weight, Float::sum);
+        }
+    }
+
+    /**
+     * 查询词只有一个字时用单字，否则用所有相邻两个字的组合
+     */
+    private static List<String> queryTokens(String normalized) {
+        if (normalized.length() == 1) {
+            return Collections.singletonList(normalized);
+        }
+        Set<String> tokens = new LinkedHashSet<>();
+        for (int i = 0; i + 1 < normalized.length(); i++) {
+            tokens.add(normalized.substring(i, i + 2));
+        }
+        return new ArrayList<>(tokens);
+    }
+
+    /**
+     * 转小写，只保留文字和数字
+     */
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        text.codePoints()
+                .filter(Character::isLetterOrDigit)
+                .map(Character::toLowerCase)
+                .forEach(sb::appendCodePoint);
+        return sb.toString();
+    }
+
+    private static float idf(int total, int df) {
+        return (float) Math.log(1 + (double) total / df);
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            stats.put("shops", docTokens.size());
+            stats.put("tokens", postings.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        stats.put("ready", ready);
+        stats.put("searches", searchCount.sum());
+        stats.put("search", searchLatency.snapshot());
+        return stats;
+    }
+}
@@ -0,0 +1,60 @@
+package com.hmdp.utils;
+
+import com.hmdp.service.IShopService;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+
+/**
+ * 启动时建立店铺名称的本地搜索索引，加载完成前按名称搜索回退到数据库。
+ * 之后定时按更新时间增量重建，其他节点的更新通知丢失时，最多滞后一个周期；
+ * 删除的店铺没有更新时间可查，由定时的全量重建移除
+ */
+@Component
+public class ShopSearchIndexLoader implements ApplicationRunner {
+
+    private final IShopService shopService;
+    /**
+     * 已加载的最大更新时间，只在启动加载和定时任务中修改
+     */
+    private volatile LocalDateTime lastUpdateTime;
+    private volatile boolean loaded;
+
+    public ShopSearchIndexLoader(IShopService shopService) {
+        this.shopService = shopService;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        lastUpdateTime = shopService.loadSearchIndex();
+        loaded = true;
+    }
+
+    /**
+     * 定时重新索引最近更新的店铺
+     */
+    @Scheduled(fixedDelay = SystemConstants.SHOP_SEARCH_REFRESH_INTERVAL)
+    public void refresh() {
+        if (!loaded) {
+            return;
+        }
+        lastUpdateTime = shopService.refreshSearchIndex(lastUpdateTime);
+    }
+
+    /**
+     * 定时全量重建，移除已经删除的店铺
+     */
+    @Scheduled(fixedDelay = SystemConstants.SHOP_SEARCH_REBUILD_INTERVAL, initialDelay = SystemConstants.SHOP_SEARCH_REBUILD_INTERVAL)
+    public void rebuild() {
+        if (!loaded) {
+            return;
+        }
+        LocalDateTime maxUpdateTime = shopService.loadSearchIndex();
+        if (maxUpdateTime != null && (lastUpdateTime == null || maxUpdateTime.isAfter(lastUpdateTime))) {
+            lastUpdateTime = maxUpdateTime;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+/**
+ * 签名令牌的编解码：base64url(json) + "." + base64url(HmacSHA256(base64url(json)))
+ * <p>
+ * 只负责签名和校验签名，过期时间等字段由调用方检查。
+ * </p>
+ */
+public class SignedTokenCodec {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    /**
+     * Mac不是线程安全的，每个线程一个
+     */
+    private final ThreadLocal<Mac> macs;
+
+    public SignedTokenCodec(byte[] secret) {
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("初始化" + ALGORITHM + "失败", e);
+            }
+        });
+    }
+
+    public String encode(JSONObject payload) {
+        String body = ENCODER.encodeToString(payload.toString().getBytes(StandardCharsets.UTF_8));
+        return body + "." + ENCODER.encodeToString(sign(body));
+    }
+
+    /**
+     * @return 格式错误或签名不对返回null
+     */
+    public JSONObject decode(String token) {
+        int dot = token.indexOf('.');
+        if (dot <= 0 || dot == token.length() - 1) {
+            return null;
+        }
+        String body = token.substring(0, dot);
+        try {
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            // 用常量时间比较，避免通过耗时猜出签名
+            if (!MessageDigest.isEqual(signature, sign(body))) {
+                return null;
+            }
+            return JSONUtil.parseObj(new String(DECODER.decode(body), StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            // 不是合法的base64或json
+            return null;
+        }
+    }
+
+    private byte[] sign(String body) {
+        return macs.get().doFinal(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
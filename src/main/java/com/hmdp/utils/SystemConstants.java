@@ -5,7 +5,103 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    // 按条数分页（热门博文、店铺搜索）时最多跳过的条数，更深的页不再返回
+    public static final long MAX_PAGE_OFFSET = 10000L;
 
     public static final String STR_VERIFY_CODE = "verify_code";
     public static final String STR_USER = "user";
+
+    // 店铺本地缓存（L1）：条目数、总权重（近似字节数）、写入后存活秒数
+    public static final int LOCAL_SHOP_MAX_SIZE = 10000;
+    public static final long LOCAL_SHOP_MAX_WEIGHT = 16 * 1024 * 1024L;
+    public static final long LOCAL_SHOP_TTL = 10L;
+    public static final long LOCAL_SHOP_TYPE_TTL = 60L;
+    // 店铺优惠券列表的本地缓存：店铺数、写入后存活秒数
+    public static final int LOCAL_VOUCHER_MAX_SIZE = 10000;
+    public static final long LOCAL_VOUCHER_TTL = 10L;
+
+    // 本地缓存失效消息：批量发送的间隔毫秒数、每批最多key数
+    public static final long INVALIDATE_BATCH_INTERVAL = 20L;
+    public static final int INVALIDATE_BATCH_SIZE = 500;
+
+    // 缓存重建线程池：线程数、等待队列容量、关闭时等待的秒数
+    public static final int REBUILD_POOL_SIZE = 4;
+    public static final int REBUILD_QUEUE_CAPACITY = 1000;
+    public static final long REBUILD_SHUTDOWN_TIMEOUT = 10L;
+    // 批量重建：合并过期key的窗口毫秒数、每批最多key数、认领key的秒数
+    public static final long REBUILD_BATCH_WINDOW = 50L;
+    public static final int REBUILD_BATCH_SIZE = 500;
+    public static final long REBUILD_CLAIM_TTL = 10L;
+
+    // 布隆过滤器从数据库补充新增id的间隔（毫秒）
+    public static final long BLOOM_RESYNC_INTERVAL = 60000L;
+
+    // 本地缓存的登录会话最大条目数
+    public static final int LOCAL_SESSION_MAX_SIZE = 100000;
+    // 签名令牌模式下，每隔多少秒从redis全量同步一次已退出登录的令牌
+    public static final long SESSION_REVOKED_SYNC_INTERVAL = 60L;
+
+    // 分布式锁：租期，看门狗每过租期的1/3续期一次；查询缓存时等待重建的最长时间
+    public static final long LOCK_LEASE_MILLIS = 30000L;
+    public static final long LOCK_WAIT_MILLIS = 5000L;
+
+    // 点赞数写回数据库的间隔（毫秒），每条update语句最多修改的博文数
+    public static final long BLOG_LIKE_FLUSH_INTERVAL = 5000L;
+    public static final int BLOG_LIKE_FLUSH_BATCH_SIZE = 500;
+
+    // 关注流：粉丝数超过阈值的博主不推送到粉丝的收件箱，由粉丝读取时拉取；收件箱、发件箱保留的条数；推送时每次pipeline的粉丝数
+    public static final int FEED_PUSH_THRESHOLD = 5000;
+    public static final int FEED_INBOX_MAX_SIZE = 1000;
+    public static final int FEED_OUTBOX_MAX_SIZE = 1000;
+    public static final int FEED_FANOUT_CHUNK_SIZE = 500;
+    // 推送任务的工作线程数、最多重试次数、读取任务时阻塞的毫秒数
+    public static final int FEED_FANOUT_WORKERS = 2;
+    public static final int FEED_FANOUT_MAX_ATTEMPTS = 5;
+    public static final long FEED_FANOUT_BLOCK_MILLIS = 2000;
+    // 检查漏提交推送任务的间隔（毫秒），只检查发布超过多少秒的博文
+    public static final long FEED_RECOVER_INTERVAL = 60000L;
+    public static final long FEED_RECOVER_GRACE_SECONDS = 30L;
+
+    // 附近的店铺：搜索半径（米）；启动时加载GEO索引每批查询的店铺数
+    public static final double SHOP_GEO_RADIUS = 5000;
+    public static final int SHOP_GEO_LOAD_BATCH_SIZE = 1000;
+    // 启动时建立店铺搜索索引每批查询的店铺数
+    public static final int SHOP_SEARCH_LOAD_BATCH_SIZE = 1000;
+    // 店铺搜索索引：按更新时间增量重建的间隔（毫秒），往前多查的秒数（覆盖晚提交的事务）；全量重建的间隔（毫秒）
+    public static final long SHOP_SEARCH_REFRESH_INTERVAL = 60000L;
+    public static final long SHOP_SEARCH_REFRESH_GRACE_SECONDS = 30L;
+    public static final long SHOP_SEARCH_REBUILD_INTERVAL = 3600000L;
+
+    // 签到记录归档：每月1号凌晨归档上个月，每批SCAN、读取、写入的key数
+    public static final String SIGN_ARCHIVE_CRON = "0 0 3 1 * ?";
+    public static final int SIGN_ARCHIVE_BATCH_SIZE = 1000;
+
+    // UV统计：访问记录批量写入redis的间隔（毫秒）、内存中最多缓冲的访客数、每次pipeline的key数、一次最多查询的天数
+    public static final long UV_FLUSH_INTERVAL = 1000L;
+    public static final int UV_BUFFER_MAX_SIZE = 100000;
+    public static final int UV_FLUSH_BATCH_SIZE = 500;
+    public static final int UV_MAX_QUERY_DAYS = 90;
+
+    // 热点店铺缓存预热：每批查询、写入的店铺数；检查并补写的间隔（毫秒）
+    public static final int WARMUP_BATCH_SIZE = 500;
+    public static final long WARMUP_CHECK_INTERVAL = 600000L;
+
+    // 全局id生成器每次从redis租用的序列号个数
+    public static final int ID_LEASE_SIZE = 1000;
+
+    // 秒杀订单消费者：每批最多读取的订单数、阻塞等待的毫秒数、失败后重试的间隔、转入死信前的最多处理次数
+    public static final int SECKILL_ORDER_BATCH_SIZE = 200;
+    public static final long SECKILL_ORDER_BLOCK_MILLIS = 2000L;
+    public static final long SECKILL_ORDER_RETRY_MILLIS = 1000L;
+    public static final int SECKILL_ORDER_MAX_ATTEMPTS = 5;
+
+    // redis stream消费者：检查其他消费者遗留消息的间隔（毫秒），消息超过多久没有ack认为原消费者已经宕机，
+    // 一次XPENDING查询的条数；没有未ack消息的消费者空闲多久后从消费者组中删除
+    public static final long STREAM_CLAIM_INTERVAL = 30000L;
+    public static final long STREAM_CLAIM_MIN_IDLE_MILLIS = 60000L;
+    public static final int STREAM_CLAIM_BATCH_SIZE = 100;
+    public static final long STREAM_CONSUMER_EXPIRE_MILLIS = 86400000L;
+
+    // 关注集合从数据库加载时，加载期间有关注、取关导致版本号变化的最多重新加载次数
+    public static final int FOLLOWS_LOAD_ATTEMPTS = 3;
 }
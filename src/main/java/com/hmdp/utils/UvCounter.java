@@ -0,0 +1,193 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 店铺、博文每天的独立访客数（UV），用redis的HyperLogLog统计，每个key最多占12KB，和访问量无关。
+ * <p>
+ * 1. 访问记录先放在内存中，同一个key的重复访客在内存中就去重了，请求线程不访问redis；<br>
+ * 2. 定时把缓冲的访客用pipeline批量PFADD到 uv:{type}:{id}:{yyyyMMdd}；<br>
+ * 3. 缓冲的访客数有上限，redis不可用时超出的访问记录丢弃，不会撑爆内存；<br>
+ * 4. 查询一段时间的UV时，一次PFCOUNT多个key，由redis合并计算，不用临时key。
+ * </p>
+ */
+@Slf4j
+@Component
+public class UvCounter {
+
+    public static final String SHOP = "shop";
+    public static final String BLOG = "blog";
+
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final StringRedisTemplate stringRedisTemplate;
+    /**
+     * key -> 还没写入redis的访客。增加和取出都在compute/remove中进行，取出后的集合不会再被修改
+     */
+    private final Map<String, Set<String>> buffer = new ConcurrentHashMap<>();
+    private final AtomicInteger bufferedCount = new AtomicInteger();
+
+    private final LongAdder recordedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final LongAdder flushedCount = new LongAdder();
+    private final LongAdder flushFailedCount = new LongAdder();
+    private final LatencyRecorder flushLatency = new LatencyRecorder();
+
+    public UvCounter(StringRedisTemplate stringRedisTemplate, Metrics metrics) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        metrics.register("uv", this::stats);
+    }
+
+    /**
+     * 请求的访客标识：登录用户用用户id，未登录的用ip
+     */
+    public static String visitor(HttpServletRequest request) {
+        UserDTO user = UserHolder.getUser();
+        return user != null ? "u" + user.getId() : "ip:" + request.getRemoteAddr();
+    }
+
+    /**
+     * 记录一次访问，只写内存
+     */
+    public void record(String type, Long id, String visitor) {
+        recordedCount.increment();
+        if (bufferedCount.get() >= SystemConstants.UV_BUFFER_MAX_SIZE) {
+            droppedCount.increment();
+            return;
+        }
+        String key = uvKey(type, id, LocalDate.now());
+        buffer.compute(key, (k, visitors) -> {
+            if (visitors == null) {
+                visitors = new HashSet<>();
+            }
+            if (visitors.add(visitor)) {
+                bufferedCount.incrementAndGet();
+            }
+            return visitors;
+        });
+    }
+
+    /**
+     * 查询[begin, end]期间的独立访客数，多天的访客合并去重
+     *
+     * @return 日期范围不合法或超过最多查询的天数时返回null
+     */
+    public Long count(String type, Long id, LocalDate begin, LocalDate end) {
+        long days = ChronoUnit.DAYS.between(begin, end) + 1;
+        if (days <= 0 || days > SystemConstants.UV_MAX_QUERY_DAYS) {
+            return null;
+        }
+        String[] keys = new String[(int) days];
+        for (int i = 0; i < days; i++) {
+            keys[i] = uvKey(type, id, begin.plusDays(i));
+        }
+        // PFCOUNT key1 key2 ...
+        Long count = stringRedisTemplate.opsForHyperLogLog().size(keys);
+        return count == null ? 0L : count;
+    }
+
+    /**
+     * 定时把缓冲的访客批量写入redis
+     */
+    @Scheduled(fixedDelay = SystemConstants.UV_FLUSH_INTERVAL)
+    public void flush() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        long begin = System.nanoTime();
+        // 1. 取出所有key的访客
+        Map<String, Set<String>> drained = new LinkedHashMap<>();
+        for (String key : buffer.keySet()) {
+            Set<String> visitors = buffer.remove(key);
+            if (visitors != null) {
+                drained.put(key, visitors);
+                bufferedCount.addAndGet(-visitors.size());
+            }
+        }
+        // 2. 分批写入，每批一次pipeline PFADD + EXPIRE
+        List<String> keys = new ArrayList<>(drained.keySet());
+        for (int from = 0; from < keys.size(); from += SystemConstants.UV_FLUSH_BATCH_SIZE) {
+            List<String> batch = keys.subList(from, Math.min(from + SystemConstants.UV_FLUSH_BATCH_SIZE, keys.size()));
+            try {
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (String key : batch) {
+                        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                        byte[][] values = drained.get(key).stream()
+                                .map(v -> v.getBytes(StandardCharsets.UTF_8))
+                                .toArray(byte[][]::new);
+                        connection.pfAdd(rawKey, values);
+                        connection.expire(rawKey, TimeUnit.DAYS.toSeconds(RedisConstants.UV_TTL));
+                    }
+                    return null;
+                });
+                batch.forEach(key -> flushedCount.add(drained.get(key).size()));
+            } catch (Exception e) {
+                // 写入失败的放回缓冲区，下次再写；超过上限的丢弃
+                flushFailedCount.increment();
+                log.error("UV写入redis失败", e);
+                batch.forEach(key -> restore(key, drained.get(key)));
+            }
+        }
+        flushLatency.recordSince(begin);
+    }
+
+    @PreDestroy
+    public void stop() {
+        flush();
+    }
+
+    private void restore(String key, Set<String> visitors) {
+        if (bufferedCount.get() >= SystemConstants.UV_BUFFER_MAX_SIZE) {
+            droppedCount.add(visitors.size());
+            return;
+        }
+        buffer.compute(key, (k, current) -> {
+            if (current == null) {
+                current = new HashSet<>();
+            }
+            for (String visitor : visitors) {
+                if (current.add(visitor)) {
+                    bufferedCount.incrementAndGet();
+                }
+            }
+            return current;
+        });
+    }
+
+    private static String uvKey(String type, Long id, LocalDate day) {
+        return RedisConstants.UV_KEY + type + ":" + id + ":" + day.format(DAY_FORMATTER);
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("recorded", recordedCount.sum());
+        stats.put("buffered", bufferedCount.get());
+        stats.put("dropped", droppedCount.sum());
+        stats.put("flushed", flushedCount.sum());
+        stats.put("flushFailed", flushFailedCount.sum());
+        stats.put("flush", flushLatency.snapshot());
+        return stats;
+    }
+}
@@ -0,0 +1,16 @@
+-- 关注、取关的事务提交后修改关注集合
+-- KEYS[1] 关注集合；KEYS[2] 集合的版本号
+-- ARGV[1] 1关注，0取关；ARGV[2] 被关注的用户id；ARGV[3] 版本号的ttl（秒）
+-- 先把版本号加1，正在从数据库加载的集合发现版本号变了会重新加载，不会用加载前读到的旧数据覆盖这次修改
+redis.call('incr', KEYS[2])
+redis.call('expire', KEYS[2], ARGV[3])
+-- 集合没有加载过不用修改，下次读取时从数据库加载
+if redis.call('exists', KEYS[1]) == 0 then
+    return 0
+end
+if ARGV[1] == '1' then
+    redis.call('sadd', KEYS[1], ARGV[2])
+else
+    redis.call('srem', KEYS[1], ARGV[2])
+end
+return 1
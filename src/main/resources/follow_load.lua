@@ -0,0 +1,12 @@
+-- 从数据库加载的关注集合先写在临时key中，加载期间版本号没有变才替换正式的集合
+-- KEYS[1] 临时集合；KEYS[2] 关注集合；KEYS[3] 集合的版本号
+-- ARGV[1] 开始加载前读到的版本号，没有时为空串；ARGV[2] 集合的ttl（秒）；ARGV[3] 为1时不检查版本号
+-- 替换成功返回1，版本号变了返回0
+local version = redis.call('get', KEYS[3]) or ''
+if ARGV[3] ~= '1' and version ~= ARGV[1] then
+    redis.call('del', KEYS[1])
+    return 0
+end
+redis.call('rename', KEYS[1], KEYS[2])
+redis.call('expire', KEYS[2], ARGV[2])
+return 1
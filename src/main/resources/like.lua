@@ -0,0 +1,15 @@
+-- 点赞/取消点赞：用户已点赞则取消，否则点赞。点赞数的变化先记在增量hash中，由定时任务批量写回数据库
+-- KEYS[1] 点赞的用户集合；KEYS[2] 点赞数增量hash；KEYS[3] 热门排行zset；KEYS[4] 最早未写回的时间
+-- ARGV[1] 用户id；ARGV[2] 博文id；ARGV[3] 当前时间（毫秒）
+-- 返回1表示点赞，-1表示取消点赞
+local delta = 1
+if redis.call('sismember', KEYS[1], ARGV[1]) == 1 then
+    redis.call('srem', KEYS[1], ARGV[1])
+    delta = -1
+else
+    redis.call('sadd', KEYS[1], ARGV[1])
+end
+redis.call('hincrby', KEYS[2], ARGV[2], delta)
+redis.call('zincrby', KEYS[3], delta, ARGV[2])
+redis.call('set', KEYS[4], ARGV[3], 'NX')
+return delta
@@ -0,0 +1,16 @@
+-- 开始写回点赞数：把增量hash改名为待写回的hash，之后的点赞记到新的增量hash中
+-- 上次写回失败时待写回的hash还在，先处理它
+-- KEYS[1] 点赞数增量hash；KEYS[2] 待写回的hash；KEYS[3] 最早未写回的时间
+-- 没有要写回的返回-1，否则返回最早未写回的时间（毫秒），未知时返回0
+if redis.call('exists', KEYS[2]) == 0 then
+    if redis.call('exists', KEYS[1]) == 0 then
+        return -1
+    end
+    redis.call('rename', KEYS[1], KEYS[2])
+end
+local since = redis.call('get', KEYS[3])
+redis.call('del', KEYS[3])
+if not since then
+    return 0
+end
+return tonumber(since)
@@ -0,0 +1,43 @@
+-- 秒杀下单：校验秒杀时间、库存、一人一单，扣减库存，记录下单用户，发送订单消息
+-- 返回值：0 成功；1 库存不足；2 重复下单；3 秒杀未开始；4 秒杀已结束；5 秒杀券不存在
+
+-- 1. 参数
+local stockKey = KEYS[1]
+local timeKey = KEYS[2]
+local orderKey = KEYS[3]
+local streamKey = KEYS[4]
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local orderId = ARGV[3]
+local now = tonumber(ARGV[4])
+
+-- 2. 校验秒杀时间
+local times = redis.call('hmget', timeKey, 'begin', 'end')
+if (not times[1]) or (not times[2]) then
+    return 5
+end
+if now < tonumber(times[1]) then
+    return 3
+end
+if now > tonumber(times[2]) then
+    return 4
+end
+
+-- 3. 校验库存
+local stock = tonumber(redis.call('get', stockKey))
+if (not stock) or stock <= 0 then
+    return 1
+end
+
+-- 4. 校验一人一单
+if redis.call('sismember', orderKey, userId) == 1 then
+    return 2
+end
+
+-- 5. 扣减库存，记录下单用户
+redis.call('incrby', stockKey, -1)
+redis.call('sadd', orderKey, userId)
+
+-- 6. 发送订单消息，由异步消费者写入数据库
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return 0
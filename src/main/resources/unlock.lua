@@ -0,0 +1,14 @@
+-- 释放可重入锁：只有持有者才能释放，重入次数减到0时删除锁，并通知等待的线程
+-- KEYS[1] 锁的key；KEYS[2] 释放通知的频道；ARGV[1] 持有者标识；ARGV[2] 过期时间（毫秒）
+-- 不是持有者返回nil，还有重入返回0，彻底释放返回1
+if redis.call('hexists', KEYS[1], ARGV[1]) == 0 then
+    return nil
+end
+local count = redis.call('hincrby', KEYS[1], ARGV[1], -1)
+if count > 0 then
+    redis.call('pexpire', KEYS[1], ARGV[2])
+    return 0
+end
+redis.call('del', KEYS[1])
+redis.call('publish', KEYS[2], KEYS[1])
+return 1
@@ -2,12 +2,20 @@ package com.hmdp;
 
 import com.hmdp.service.IShopService;
 import com.hmdp.service.impl.ShopServiceImpl;
+import com.hmdp.utils.RedisIdWorker;
 import org.apache.ibatis.annotations.Result;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import javax.annotation.Resource;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
@@ -15,12 +23,45 @@ class HmDianPingApplicationTests {
     @Resource
     private IShopService shopService;
 
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
     @Test
     public void testShop2Redis() {
-        try {
-            shopService.shop2Redis(1L, 10L);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+        shopService.shop2Redis(1L, 10L);
+    }
+
+    /**
+     * 在真实的redis上校验并发生成的id唯一、单调递增；吞吐量见 RedisIdWorkerBenchmark
+     */
+    @Test
+    public void testIdWorker() throws InterruptedException {
+        // 每个线程跨过几次号段租用，足够覆盖并发续租
+        int threads = 8;
+        int idsPerThread = 5000;
+        Set<Long> ids = ConcurrentHashMap.newKeySet(threads * idsPerThread);
+        CountDownLatch latch = new CountDownLatch(threads);
+        ExecutorService es = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            es.submit(() -> {
+                try {
+                    long last = 0;
+                    for (int j = 0; j < idsPerThread; j++) {
+                        long id = redisIdWorker.nextId("test");
+                        // 同一个线程拿到的id单调递增，不递增就不加入集合，让最后的断言失败
+                        if (id <= last) {
+                            return;
+                        }
+                        last = id;
+                        ids.add(id);
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
         }
+        latch.await();
+        es.shutdown();
+        assertEquals(threads * idsPerThread, ids.size());
     }
 }
@@ -0,0 +1,65 @@
+package com.hmdp.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.YearMonth;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 连续签到天数的计算，不依赖redis和数据库
+ */
+class SignServiceImplTest {
+
+    @Test
+    void trailingOnesCountsConsecutiveDaysEndingToday() {
+        assertEquals(0, SignServiceImpl.trailingOnes(0));
+        assertEquals(2, SignServiceImpl.trailingOnes(0b1011));
+        assertEquals(31, SignServiceImpl.trailingOnes((1L << 31) - 1));
+    }
+
+    @Test
+    void archivedBitsDropsDaysAfterMonthEnd() {
+        // 2024年2月有29天，数据库中的31位里第1~29天是高29位
+        int february = ((1 << 29) - 1) << 2;
+        assertEquals((1L << 29) - 1, SignServiceImpl.archivedBits(february, YearMonth.of(2024, 2)));
+        // 4月有30天，只签了30号
+        assertEquals(1L, SignServiceImpl.archivedBits(1 << 1, YearMonth.of(2024, 4)));
+        // 31天的月份签满，最高位不会被当成符号位
+        assertEquals((1L << 31) - 1, SignServiceImpl.archivedBits(Integer.MAX_VALUE, YearMonth.of(2024, 1)));
+    }
+
+    @Test
+    void streakWithinCurrentMonthDoesNotLoadEarlierMonths() {
+        int streak = SignServiceImpl.streak(YearMonth.of(2024, 3), 4, 0b0111, m -> {
+            throw new AssertionError("不应该查询之前的月份：" + m);
+        });
+        assertEquals(3, streak);
+    }
+
+    @Test
+    void streakSpansSeveralFullMonths() {
+        Map<YearMonth, Long> months = new HashMap<>();
+        months.put(YearMonth.of(2024, 2), (1L << 29) - 1);
+        months.put(YearMonth.of(2024, 1), (1L << 31) - 1);
+        // 2023年12月只签了最后3天
+        months.put(YearMonth.of(2023, 12), 0b111L);
+        int streak = SignServiceImpl.streak(YearMonth.of(2024, 3), 5, 0b11111,
+                m -> months.getOrDefault(m, 0L));
+        assertEquals(5 + 29 + 31 + 3, streak);
+    }
+
+    @Test
+    void streakStopsAtFirstMonthNotFullySigned() {
+        Map<YearMonth, Long> months = new HashMap<>();
+        // 2月签满，1月的最后一天没签，之后的月份即使签满也不算
+        months.put(YearMonth.of(2024, 2), (1L << 29) - 1);
+        months.put(YearMonth.of(2024, 1), ((1L << 31) - 1) & ~1L);
+        months.put(YearMonth.of(2023, 12), (1L << 31) - 1);
+        int streak = SignServiceImpl.streak(YearMonth.of(2024, 3), 2, 0b11,
+                m -> months.getOrDefault(m, 0L));
+        assertEquals(2 + 29, streak);
+    }
+}
@@ -0,0 +1,184 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 用两个实例模拟两个节点：大部分用例mock掉redis，直接把A发出的消息交给B处理；
+ * 另有一个用例连本地redis走真实的发布订阅
+ */
+class CacheInvalidatorTest {
+
+    private StringRedisTemplate redisA;
+    private CacheInvalidator nodeA;
+    private CacheInvalidator nodeB;
+    private final List<String> evictedOnA = new ArrayList<>();
+    private final List<String> evictedOnB = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        redisA = mock(StringRedisTemplate.class);
+        nodeA = new CacheInvalidator(redisA, mock(RedisMessageListenerContainer.class), new Metrics());
+        nodeB = new CacheInvalidator(mock(StringRedisTemplate.class), mock(RedisMessageListenerContainer.class), new Metrics());
+        nodeA.subscribe(RedisConstants.CACHE_SHOP_KEY, evictedOnA::add);
+        nodeB.subscribe(RedisConstants.CACHE_SHOP_KEY, evictedOnB::add);
+    }
+
+    @Test
+    void invalidationReachesOtherNodeInOneBatch() {
+        nodeA.invalidate(RedisConstants.CACHE_SHOP_KEY + 1);
+        nodeA.invalidate(RedisConstants.CACHE_SHOP_KEY + 2);
+        nodeA.invalidate(RedisConstants.CACHE_SHOP_KEY + 1);
+        assertEquals(3, evictedOnA.size());
+
+        String payload = flushAndCapture();
+        assertEquals(2, JSONUtil.parseObj(payload).getJSONArray("keys").size());
+
+        nodeB.handleMessage(payload);
+        assertEquals(2, evictedOnB.size());
+        assertTrue(evictedOnB.containsAll(Arrays.asList("1", "2")));
+
+        // 自己发出的消息不会再处理一次
+        nodeA.handleMessage(payload);
+        assertEquals(3, evictedOnA.size());
+    }
+
+    @Test
+    void duplicateMessageFromSameNodeIsDropped() {
+        nodeA.invalidate(RedisConstants.CACHE_SHOP_KEY + 1);
+        String payload = flushAndCapture();
+
+        nodeB.handleMessage(payload);
+        assertEquals(1, evictedOnB.size());
+
+        nodeB.handleMessage(payload);
+        assertEquals(1, evictedOnB.size());
+    }
+
+    @Test
+    void messageFromNodeWithSlowerClockIsApplied() {
+        nodeA.invalidate(RedisConstants.CACHE_SHOP_KEY + 1);
+        String payload = flushAndCapture();
+        long stamp = JSONUtil.parseObj(payload).getLong("stamp");
+
+        nodeB.handleMessage(payload);
+        assertEquals(1, evictedOnB.size());
+
+        // 另一个节点的时钟慢，它之后的修改带着更小的版本戳，也必须清除
+        String later = JSONUtil.createObj()
+                .set("node", "another-node")
+                .set("stamp", stamp - 1000)
+                .set("keys", Collections.singletonList(RedisConstants.CACHE_SHOP_KEY + 1))
+                .toString();
+        nodeB.handleMessage(later);
+        assertEquals(2, evictedOnB.size());
+    }
+
+    @Test
+    void readStartedBeforeInvalidationIsStale() {
+        String key = RedisConstants.CACHE_SHOP_KEY + 1;
+        long stamp = nodeB.stamp();
+        assertFalse(nodeB.isInvalidatedSince(key, stamp));
+
+        nodeA.invalidate(key);
+        nodeB.handleMessage(flushAndCapture());
+        assertTrue(nodeB.isInvalidatedSince(key, stamp));
+        assertFalse(nodeB.isInvalidatedSince(key, nodeB.stamp()));
+    }
+
+    /**
+     * 连本地redis走一遍真实的发布订阅，本地没有redis时跳过
+     */
+    @Test
+    void invalidationRoundTripThroughRedis() throws Exception {
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(
+                System.getProperty("redis.host", "localhost"), Integer.getInteger("redis.port", 6379));
+        factory.afterPropertiesSet();
+        RedisMessageListenerContainer containerA = null;
+        RedisMessageListenerContainer containerB = null;
+        CacheInvalidator realA = null;
+        CacheInvalidator realB = null;
+        try {
+            assumeTrue(ping(factory), "本地redis不可用");
+            StringRedisTemplate template = new StringRedisTemplate(factory);
+            containerA = startContainer(factory);
+            containerB = startContainer(factory);
+            realA = new CacheInvalidator(template, containerA, new Metrics());
+            realB = new CacheInvalidator(template, containerB, new Metrics());
+            List<String> evictedOnRealB = new CopyOnWriteArrayList<>();
+            CountDownLatch received = new CountDownLatch(1);
+            realB.subscribe(RedisConstants.CACHE_SHOP_KEY, id -> {
+                evictedOnRealB.add(id);
+                received.countDown();
+            });
+            realA.start();
+            realB.start();
+
+            // 订阅是异步建立的，没收到就再发一次
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.getCount() > 0 && System.currentTimeMillis() < deadline) {
+                realA.invalidate(RedisConstants.CACHE_SHOP_KEY + 1);
+                received.await(200, TimeUnit.MILLISECONDS);
+            }
+            assertEquals(0, received.getCount());
+            assertEquals("1", evictedOnRealB.get(0));
+        } finally {
+            if (realA != null) {
+                realA.stop();
+            }
+            if (realB != null) {
+                realB.stop();
+            }
+            if (containerA != null) {
+                containerA.destroy();
+            }
+            if (containerB != null) {
+                containerB.destroy();
+            }
+            factory.destroy();
+        }
+    }
+
+    private static boolean ping(LettuceConnectionFactory factory) {
+        try (RedisConnection connection = factory.getConnection()) {
+            return "PONG".equals(connection.ping());
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static RedisMessageListenerContainer startContainer(LettuceConnectionFactory factory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.afterPropertiesSet();
+        container.start();
+        return container;
+    }
+
+    private String flushAndCapture() {
+        nodeA.flush();
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        verify(redisA).convertAndSend(eq(RedisConstants.CACHE_INVALIDATE_CHANNEL), captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,38 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageCursorTest {
+
+    @Test
+    void encodedCursorDecodesToSameKeyAndId() {
+        PageCursor c = PageCursor.decode(PageCursor.encode(20, 7));
+        assertEquals(20L, c.getKey());
+        assertEquals(7L, c.getId());
+        assertTrue(PageCursor.decode("").isFirst());
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        assertNull(PageCursor.decode("不是base64"));
+        assertNull(PageCursor.decode(raw("20")));
+        assertNull(PageCursor.decode(raw("a:1")));
+    }
+
+    @Test
+    void negativeKeyOrIdIsRejected() {
+        assertNull(PageCursor.decode(raw("-5:0")));
+        assertNull(PageCursor.decode(raw("0:-1")));
+    }
+
+    private static String raw(String text) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
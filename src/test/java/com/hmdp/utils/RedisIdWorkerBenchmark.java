@@ -0,0 +1,105 @@
+package com.hmdp.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 全局id生成器的吞吐量，不需要redis和数据库。
+ * <p>
+ * redis换成内存中的计数器，租用序列号时按 redisLatencyMicros 模拟一次往返的耗时，
+ * 所有线程共用一个 RedisIdWorker，和线上一样在同一个号段上竞争。
+ * JMH报告的是所有线程的合计，每个线程每秒的id数 = 结果 / 线程数。
+ * </p>
+ * 运行：执行 main 方法，或者 mvn test-compile 后用测试classpath运行 org.openjdk.jmh.Main RedisIdWorkerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+public class RedisIdWorkerBenchmark {
+
+    /**
+     * 一次INCRBY的往返耗时（微秒），0表示只测本地的加锁开销
+     */
+    @Param({"0", "500"})
+    public long redisLatencyMicros;
+
+    private RedisIdWorker idWorker;
+
+    @Setup
+    public void setUp() {
+        idWorker = new RedisIdWorker(stubRedis(redisLatencyMicros), new Metrics());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long nextIdOneThread() {
+        return idWorker.nextId("bench");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long nextIdEightThreads() {
+        return idWorker.nextId("bench");
+    }
+
+    /**
+     * 只实现 RedisIdWorker 用到的 INCRBY 和 EXPIRE
+     */
+    @SuppressWarnings("unchecked")
+    private static StringRedisTemplate stubRedis(long latencyMicros) {
+        Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+        ValueOperations<String, String> ops = (ValueOperations<String, String>) Proxy.newProxyInstance(
+                ValueOperations.class.getClassLoader(),
+                new Class<?>[]{ValueOperations.class},
+                (proxy, method, args) -> {
+                    if (!"increment".equals(method.getName()) || args == null || args.length != 2) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    if (latencyMicros > 0) {
+                        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(latencyMicros));
+                    }
+                    long delta = ((Number) args[1]).longValue();
+                    return counters.computeIfAbsent((String) args[0], k -> new AtomicLong()).addAndGet(delta);
+                });
+        return new StringRedisTemplate() {
+            @Override
+            public ValueOperations<String, String> opsForValue() {
+                return ops;
+            }
+
+            @Override
+            public Boolean expire(String key, long timeout, TimeUnit unit) {
+                return Boolean.TRUE;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RedisIdWorkerBenchmark.class.getSimpleName()).build()).run();
+    }
+}